@@ -0,0 +1,126 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.function.BiConsumer;
+
+import edu.cg.FunctioalForEachLoops;
+import edu.cg.ImageProcessor;
+import edu.cg.RGBWeights;
+
+/*
+ * Checks that the for-each loops allocate nothing per pixel: counts the bytes the JVM allocates
+ * while they visit every pixel of a large image, sequentially (on this thread) and in parallel
+ * (on all the threads, less a task per row band), and the bytes the per pixel operations of
+ * ImageProcessor allocate beyond their pixel buffers. A boxing BiConsumer<Integer, Integer> loop,
+ * as the loops took before, is measured too to show that the count sees per pixel garbage.
+ * Exits with 1 if a check fails.
+ *
+ * Usage: AllocationCheck [width] [height]
+ * Defaults: 4000x3000 (12 MP). Needs a HotSpot JVM that reports thread allocation.
+ */
+public class AllocationCheck {
+	// Bytes a whole loop may allocate: the captured lambdas, not a byte per pixel.
+	private static final long LOOP_SLACK = 1024;
+	// Bytes a nested forEachHeight/forEachWidth loop may allocate per row: the inner lambda it captures.
+	private static final long ROW_SLACK = 32;
+	// Bytes a parallel loop may allocate per row band: its task, and the fork-join bookkeeping.
+	private static final long BAND_SLACK = 256;
+	// Bytes an operation may allocate per pixel: its input, output and raster buffers of packed ints.
+	private static final double OPERATION_BYTES_PER_PIXEL = 12;
+
+	private static int sink;
+	private static boolean failed;
+
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		long pixels = (long)width * height;
+		int[] plane = new int[width * height];
+
+		FunctioalForEachLoops loops = new FunctioalForEachLoops();
+		loops.setForEachParameters(width, height);
+		int bands = (height + Math.max(1, FunctioalForEachLoops.TILE_PIXELS / width) - 1)
+				/ Math.max(1, FunctioalForEachLoops.TILE_PIXELS / width);
+
+		System.out.printf("%dx%d, %d pixels%n", width, height, pixels);
+		System.out.println("loop, bytes allocated, bytes/pixel, limit bytes, ok");
+		// The first runs load the classes and the pool, and warm up the JIT.
+		for (int run = 0; run < 3; run++) {
+			boolean report = run == 2;
+			loops.setForEachSequential();
+			check(report, "forEach", LOOP_SLACK, pixels, () -> loops.forEach((y, x) -> plane[y * width + x] = x ^ y), true);
+			check(report, "forEachRow", LOOP_SLACK, pixels, () -> loops.forEachRow((y, fromX, toX) -> {
+				for (int x = fromX; x < toX; x++)
+					plane[y * width + x] += x;
+			}), true);
+			check(report, "forEachWidth x forEachHeight", LOOP_SLACK + height * ROW_SLACK, pixels,
+					() -> loops.forEachHeight(y -> loops.forEachWidth(x -> plane[y * width + x] -= y)), false);
+
+			loops.setForEachParallelism(Math.max(2, Runtime.getRuntime().availableProcessors()));
+			check(report, "forEachParallel", LOOP_SLACK + bands * BAND_SLACK, pixels,
+					() -> loops.forEachParallel((y, x) -> plane[y * width + x] ^= 1), false);
+			check(report, "forEachRowParallel", LOOP_SLACK + bands * BAND_SLACK, pixels,
+					() -> loops.forEachRowParallel((y, fromX, toX) -> {
+						for (int x = fromX; x < toX; x++)
+							plane[y * width + x] |= 2;
+					}), false);
+
+			if (report) {
+				long allocated = measure(() -> boxed(width, height, (y, x) -> sink += y.intValue() * x.intValue() > 0 ? 1 : 0), true);
+				System.out.printf("boxed BiConsumer<Integer, Integer> (before), %d, %.2f,,%n", allocated, (double)allocated / pixels);
+			}
+		}
+
+		BufferedImage img = Fixtures.synthetic(width, height);
+		RGBWeights weights = new RGBWeights(1, 1, 1);
+		System.out.println("operation, bytes allocated, bytes/pixel, limit bytes/pixel, ok");
+		for (int run = 0; run < 3; run++) {
+			boolean report = run == 2;
+			check(report, "greyscale", img, OPERATION_BYTES_PER_PIXEL, () -> sequential(img, weights).greyscale());
+			check(report, "changeHue", img, OPERATION_BYTES_PER_PIXEL, () -> sequential(img, weights).changeHue());
+			check(report, "gradientMagnitude", img, OPERATION_BYTES_PER_PIXEL,
+					() -> sequential(img, weights).gradientMagnitude());
+		}
+		System.out.println(failed ? "FAILED" : "OK");
+		System.exit(failed ? 1 : 0);
+	}
+
+	// The loops as they were: every visit boxes its coordinates.
+	private static void boxed(int width, int height, BiConsumer<Integer, Integer> action) {
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				action.accept(y, x);
+	}
+
+	private static ImageProcessor sequential(BufferedImage img, RGBWeights weights) {
+		ImageProcessor ans = new ImageProcessor(s -> {}, img, weights);
+		ans.setForEachSequential();
+		return ans;
+	}
+
+	private static void check(boolean report, String name, long limit, long pixels, Runnable loop, boolean thisThread) {
+		long allocated = measure(loop, thisThread);
+		if (!report)
+			return;
+		boolean ok = allocated <= limit;
+		failed |= !ok;
+		System.out.printf("%s, %d, %.4f, %d, %s%n", name, allocated, (double)allocated / pixels, limit, ok ? "yes" : "NO");
+	}
+
+	private static void check(boolean report, String name, BufferedImage img, double limitPerPixel, Runnable op) {
+		long allocated = measure(op, true);
+		if (!report)
+			return;
+		double perPixel = (double)allocated / ((long)img.getWidth() * img.getHeight());
+		boolean ok = perPixel <= limitPerPixel;
+		failed |= !ok;
+		System.out.printf("%s, %d, %.2f, %.0f, %s%n", name, allocated, perPixel, limitPerPixel, ok ? "yes" : "NO");
+	}
+
+	// The bytes the run allocates, on this thread or on all of them.
+	private static long measure(Runnable run, boolean thisThread) {
+		long before = thisThread ? Fixtures.threadAllocatedBytes() : Fixtures.allocatedBytes();
+		run.run();
+		return (thisThread ? Fixtures.threadAllocatedBytes() : Fixtures.allocatedBytes()) - before;
+	}
+}
@@ -0,0 +1,164 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+
+import edu.cg.ImageProcessor;
+import edu.cg.RGBWeights;
+
+/*
+ * The separable bilinear interpolation side by side with the column major one it replaced, on a
+ * synthetic 6000x4000 (24 MP) image scaled down to 3000x2000 (6 MP) and up to 7200x4800.
+ * Reports the best time of a few runs of the whole call, and of the call on pixels that have been
+ * converted to packed ints already. The column major interpolation is kept here, over packed
+ * pixels as ImageProcessor had it before the separable one, as the baseline.
+ *
+ * Usage: BilinearBenchmark [runs] [parallelism]
+ * Defaults: 5 runs, the parallelism of the common pool. Needs a heap of about 1GB.
+ */
+public class BilinearBenchmark {
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+		BufferedImage img = Fixtures.noise(6000, 4000);
+		System.out.println("scale, engine, best ms, best ms converted, speedup, speedup converted");
+		for (int[] size : new int[][] { { 3000, 2000 }, { 7200, 4800 } }) {
+			double[] columnMajor = runColumnMajor(img, size[0], size[1], runs);
+			double[] separable = run(img, size[0], size[1], runs, parallelism);
+			String scale = "6000x4000 -> " + size[0] + "x" + size[1];
+			System.out.printf("%s, column major, %.0f, %.0f,,%n", scale, columnMajor[0], columnMajor[1]);
+			System.out.printf("%s, separable, %.0f, %.0f, %.1fx, %.1fx%n", scale, separable[0], separable[1],
+					columnMajor[0] / separable[0], columnMajor[1] / separable[1]);
+		}
+	}
+
+	/*
+	 * The best time in ms of the call on a new processor, which first converts the image to packed
+	 * pixels, and on a processor that has converted it already (the resampling and the allocation
+	 * of its output only). The first runs warm up the JIT.
+	 */
+	private static double[] run(BufferedImage img, int outWidth, int outHeight, int runs, int parallelism) {
+		double[] ans = { Double.MAX_VALUE, Double.MAX_VALUE };
+		ImageProcessor converted = processor(img, outWidth, outHeight, parallelism);
+		for (int run = 0; run <= runs; run++) {
+			ImageProcessor fresh = processor(img, outWidth, outHeight, parallelism);
+			long start = System.nanoTime();
+			fresh.bilinear();
+			double freshMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			converted.bilinear();
+			double convertedMillis = (System.nanoTime() - start) / 1e6;
+			if (run == 0)
+				continue;
+			ans[0] = Math.min(ans[0], freshMillis);
+			ans[1] = Math.min(ans[1], convertedMillis);
+		}
+		return ans;
+	}
+
+	// The same for the column major baseline, which converts and wraps the pixels as a processor does.
+	private static double[] runColumnMajor(BufferedImage img, int outWidth, int outHeight, int runs) {
+		double[] ans = { Double.MAX_VALUE, Double.MAX_VALUE };
+		int[] converted = packed(img);
+		for (int run = 0; run <= runs; run++) {
+			long start = System.nanoTime();
+			image(columnMajor(packed(img), img.getWidth(), img.getHeight(), outWidth, outHeight), outWidth, outHeight);
+			double freshMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			image(columnMajor(converted, img.getWidth(), img.getHeight(), outWidth, outHeight), outWidth, outHeight);
+			double convertedMillis = (System.nanoTime() - start) / 1e6;
+			if (run == 0)
+				continue;
+			ans[0] = Math.min(ans[0], freshMillis);
+			ans[1] = Math.min(ans[1], convertedMillis);
+		}
+		return ans;
+	}
+
+	private static ImageProcessor processor(BufferedImage img, int outWidth, int outHeight, int parallelism) {
+		ImageProcessor ans = new ImageProcessor(s -> {}, img, new RGBWeights(1, 1, 1), outWidth, outHeight);
+		if (parallelism > 0)
+			ans.setForEachParallelism(parallelism);
+		return ans;
+	}
+
+	/*
+	 * The bilinear interpolation ImageProcessor had before the separable one: it walks the output
+	 * column by column and computes every pixel from scratch.
+	 */
+	private static int[] columnMajor(int[] in, int inWidth, int inHeight, int outWidth, int outHeight) {
+		int[] out = new int[outWidth * outHeight];
+
+		// calculating new positions
+		double newX = inWidth / (outWidth + 1.0);
+		double newY = inHeight / (outHeight + 1.0);
+		double tempY = newY;
+		double tempX = newX;
+		int topLeftX, topRightX, bottomRightX, bottomLeftX;
+		int topLeftY, topRightY, bottomRightY, bottomLeftY;
+
+		for (int i = 0; i < outWidth; i++) {
+			for (int j = 0; j < outHeight; j++) {
+
+				bottomLeftX = bottomRightX = topLeftX = topRightX = (int)Math.floor(tempX);
+				bottomLeftY = bottomRightY = topLeftY = topRightY = (int)Math.floor(tempY);
+
+				// calculating u and v vectors
+				double u = Math.abs(bottomLeftX - tempX);
+				double v = Math.abs(bottomRightY - tempY);
+
+				// reading neighboring colors
+				int topLeftColor = in[topLeftY*inWidth + topLeftX];
+				int topRightColor = in[topRightY*inWidth + topRightX];
+				int bottomLeftColor = in[bottomLeftY*inWidth + bottomLeftX];
+				int bottomRightColor = in[bottomRightY*inWidth + bottomRightX];
+
+				int newRed = (int) (((int) ((red(bottomLeftColor) * u) + (red(bottomRightColor) * (1 - u))) * v) +
+						(int) ((red(topLeftColor) * u) + (red(topRightColor) * (1 - u))) * (1 - v));
+
+				int newGreen = (int) ((((green(bottomLeftColor) * u) + (green(bottomRightColor) * (1 - u))) * v) +
+						((int) ((green(topLeftColor) * u) + (green(topRightColor) * (1 - u))) * (1 - v)));
+
+				int newBlue = (int) (((int) ((blue(bottomRightColor) * u) + (blue(bottomLeftColor) * (1 - u))) * v) +
+						((int) ((blue(topLeftColor) * u) + (blue(topRightColor) * (1 - u))) * (1 - v)));
+
+				newRed = Math.max(0, Math.min(255, newRed));
+				newGreen = Math.max(0, Math.min(255, newGreen));
+				newBlue = Math.max(0, Math.min(255, newBlue));
+
+				out[j*outWidth + i] = 0xff000000 | (newRed << 16) | (newGreen << 8) | newBlue;
+				tempY += newY;
+			}
+			tempX += newX;
+			tempY = 0;
+		}
+		return out;
+	}
+
+	private static int red(int argb) {
+		return (argb >> 16) & 0xff;
+	}
+
+	private static int green(int argb) {
+		return (argb >> 8) & 0xff;
+	}
+
+	private static int blue(int argb) {
+		return argb & 0xff;
+	}
+
+	// The pixels of an RGB image as packed ints, read off its raster as a processor reads them.
+	private static int[] packed(BufferedImage img) {
+		int[] ans = new int[img.getWidth() * img.getHeight()];
+		img.getRaster().getDataElements(0, 0, img.getWidth(), img.getHeight(), ans);
+		for (int i = 0; i < ans.length; i++)
+			ans[i] |= 0xff000000;
+		return ans;
+	}
+
+	private static BufferedImage image(int[] pixels, int width, int height) {
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ans.getRaster().setDataElements(0, 0, width, height, pixels);
+		return ans;
+	}
+}
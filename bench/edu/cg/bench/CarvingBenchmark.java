@@ -0,0 +1,62 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.RGBWeights;
+
+/*
+ * JMH benchmarks of every carving scheme, on synthetic images of up to 12 MP and on the pictures.
+ * An operation builds the carver and removes 16 vertical and 8 horizontal seams (at most half of
+ * each dimension). It stops at 12 MP: a carve takes seconds there on a single core, and OPTIMAL
+ * minutes, about four times as long at 50 MP, which OperationBenchmark covers instead. Run as
+ * OperationBenchmark is:
+ *
+ *   gradle :bench:jmh -PjmhArgs='CarvingBenchmark'
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class CarvingBenchmark {
+	@Param({ "0.3MP", "1MP", "4MP", "12MP", "beach.jpg", "bench.png" })
+	public String image;
+
+	@Param({ "VERTICAL_HORIZONTAL", "HORIZONTAL_VERTICAL", "INTERMITTENT", "BATCHED", "OPTIMAL" })
+	public CarvingScheme scheme;
+
+	private final RGBWeights weights = new RGBWeights(1, 1, 1);
+	private BufferedImage img;
+	private int outWidth;
+	private int outHeight;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		img = Fixtures.image(image);
+		outWidth = img.getWidth() - Math.min(16, img.getWidth() / 2);
+		outHeight = img.getHeight() - Math.min(8, img.getHeight() / 2);
+	}
+
+	@Benchmark
+	public BufferedImage carve() {
+		return new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, weights).carveImage(scheme);
+	}
+}
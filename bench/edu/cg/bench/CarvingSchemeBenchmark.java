@@ -0,0 +1,49 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.RGBWeights;
+
+/*
+ * Compares the carving schemes: wall time, and the energy of the removed pixels (the lower, the
+ * better the order of the seams kept the content).
+ *
+ * Usage: CarvingSchemeBenchmark [pictures directory] [vertical seams] [horizontal seams]
+ * Defaults: pictures, 20 vertical and 15 horizontal seams.
+ */
+public class CarvingSchemeBenchmark {
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int verticalSeams = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int horizontalSeams = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+
+		System.out.println("image, scheme, ms, removed energy, versus optimal");
+		for (Map.Entry<String, BufferedImage> entry : Fixtures.pictures(pictures).entrySet()) {
+			BufferedImage img = entry.getValue();
+			int outWidth = img.getWidth() - Math.min(verticalSeams, img.getWidth() / 2);
+			int outHeight = img.getHeight() - Math.min(horizontalSeams, img.getHeight() / 2);
+			double[] optimal = run(img, outWidth, outHeight, CarvingScheme.OPTIMAL);
+			for (CarvingScheme scheme : CarvingScheme.values()) {
+				double[] result = scheme == CarvingScheme.OPTIMAL ? optimal : run(img, outWidth, outHeight, scheme);
+				System.out.printf("%s, %s, %.0f, %.1f, %+.2f%%%n", entry.getKey(), scheme, result[0], result[1],
+						100 * (result[1] / optimal[1] - 1));
+			}
+		}
+	}
+
+	// The best time in ms of two runs (the first one warms up the JIT), and the removed energy.
+	private static double[] run(BufferedImage img, int outWidth, int outHeight, CarvingScheme scheme) {
+		double[] ans = { Double.MAX_VALUE, 0 };
+		for (int run = 0; run < 2; run++) {
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, new RGBWeights(1, 1, 1));
+			long start = System.nanoTime();
+			carver.carveImage(scheme);
+			ans[0] = Math.min(ans[0], (System.nanoTime() - start) / 1e6);
+			ans[1] = carver.getRemovedEnergy();
+		}
+		return ans;
+	}
+}
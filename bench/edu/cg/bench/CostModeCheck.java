@@ -0,0 +1,210 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.CostMode;
+import edu.cg.RGBWeights;
+
+/*
+ * Checks the fixed point cost modes against DOUBLE and against the same DP in exact arithmetic
+ * (energies in 40 digits, sums without rounding). For every image it removes up to 8 vertical seams
+ * with DOUBLE costs; before each one it finds the seam every mode would remove, and the seam of the
+ * exact DP. The DP steps straight up when the left and right costs tie below the upper one, as the
+ * carver always did, so a rounding that makes or breaks such a tie can move a seam anywhere: neither
+ * DOUBLE nor the fixed point modes match the exact DP everywhere. The check fails if
+ * - FIXED_POINT and FIXED_POINT_ROLLING find different seams, or
+ * - FIXED_POINT misses the seam of the exact DP more often than DOUBLE does.
+ * It also reports how many whole carves come out the same as with DOUBLE.
+ * A seam of a carve is the first seam of a carver on the image the seams before it left, since the
+ * DP repair finds the same seams as a full pass (see IncrementalCostCheck). The images are grey
+ * (r = g = b), so the grey levels the carver sees are the pixel values.
+ *
+ * Usage: CostModeCheck [pictures directory] [random images]
+ * Defaults: pictures, 300 random images.
+ */
+public class CostModeCheck {
+	private static final MathContext EXACT = new MathContext(40);
+	private static final BigDecimal TIE = new BigDecimal("1e-30");
+
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int randomImages = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < randomImages; i++)
+			images.put("random " + i, random(random));
+		for (Map.Entry<String, BufferedImage> entry : Fixtures.pictures(pictures).entrySet())
+			images.put(entry.getKey(), grey(entry.getValue()));
+		images.put("synthetic 640x480", grey(Fixtures.synthetic(640, 480)));
+
+		int failures = 0;
+		int seams = 0;
+		int sameSeams = 0;
+		int doubleExact = 0;
+		int fixedExact = 0;
+		int sameCarves = 0;
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			for (int s = 0; s < Math.min(8, entry.getValue().getWidth() / 4); s++) {
+				int[] exact = exactSeam(greyLevels(img));
+				int[] reference = seam(img, CostMode.DOUBLE);
+				int[] fixed = seam(img, CostMode.FIXED_POINT);
+				if (!Arrays.equals(fixed, seam(img, CostMode.FIXED_POINT_ROLLING))) {
+					failures++;
+					System.out.printf("%s, seam %d: FIXED_POINT and FIXED_POINT_ROLLING seams differ%n", entry.getKey(), s);
+				}
+				seams++;
+				sameSeams += Arrays.equals(fixed, reference) ? 1 : 0;
+				doubleExact += Arrays.equals(reference, exact) ? 1 : 0;
+				fixedExact += Arrays.equals(fixed, exact) ? 1 : 0;
+				img = carver(img, img.getWidth() - 1, img.getHeight(), CostMode.DOUBLE).carveImage(CarvingScheme.VERTICAL_HORIZONTAL);
+			}
+
+			if (Arrays.equals(carve(entry.getValue(), CostMode.DOUBLE), carve(entry.getValue(), CostMode.FIXED_POINT)))
+				sameCarves++;
+		}
+		if (fixedExact < doubleExact) {
+			failures++;
+			System.out.println("FIXED_POINT misses the exact seam more often than DOUBLE");
+		}
+		System.out.printf("seams: %d; FIXED_POINT the same as DOUBLE: %d; the same as the exact DP: DOUBLE %d, FIXED_POINT %d%n",
+				seams, sameSeams, doubleExact, fixedExact);
+		System.out.printf("whole carves: %d of %d the same as DOUBLE%n", sameCarves, images.size());
+		System.out.println(failures == 0 ? "OK" : failures + " checks FAILED");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static BasicSeamsCarver carver(BufferedImage img, int outWidth, int outHeight, CostMode mode) {
+		BasicSeamsCarver ans = new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, new RGBWeights(1, 1, 1));
+		ans.setCostMode(mode);
+		return ans;
+	}
+
+	// The first vertical seam of a mode, as its column on every row: the pixels painted in both colours.
+	private static int[] seam(BufferedImage img, CostMode mode) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int[] red = pixels(carver(img, width - 1, height, mode).showSeams(true, 0xff0000));
+		int[] green = pixels(carver(img, width - 1, height, mode).showSeams(true, 0x00ff00));
+		int[] ans = new int[height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if ((red[y * width + x] & 0xffffff) == 0xff0000 && (green[y * width + x] & 0xffffff) == 0x00ff00)
+					ans[y] = x;
+			}
+		}
+		return ans;
+	}
+
+	private static int[] carve(BufferedImage img, CostMode mode) {
+		int outWidth = img.getWidth() - Math.max(1, img.getWidth() / 4);
+		int outHeight = img.getHeight() - Math.max(1, img.getHeight() / 5);
+		return pixels(carver(img, outWidth, outHeight, mode).carveImage(CarvingScheme.INTERMITTENT));
+	}
+
+	/*
+	 * The cheapest vertical seam by the carver's DP in exact arithmetic: the energy of a pixel plus the
+	 * cheapest of the three cells above with its forward term, straight up unless left or right is
+	 * cheaper than both others, and the first cheapest cell of the last row. Costs closer than 1e-30
+	 * count as equal, so that the rounding of the 40 digit square roots doesn't break ties.
+	 */
+	private static int[] exactSeam(int[][] grey) {
+		int rows = grey.length;
+		int columns = grey[0].length;
+		BigDecimal[][] costs = new BigDecimal[rows][columns];
+		int[][] steps = new int[rows][columns];
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0; x < columns; x++) {
+				int horizontal = Math.abs(grey[y][x] - grey[y][x == columns - 1 ? x - 1 : x + 1]);
+				int vertical = Math.abs(grey[y][x] - grey[y == rows - 1 ? y - 1 : y + 1][x]);
+				BigDecimal energy = BigDecimal.valueOf(vertical * vertical + horizontal * horizontal).sqrt(EXACT);
+				if (y == 0) {
+					costs[y][x] = energy;
+					continue;
+				}
+
+				int forward = x > 0 && x < columns - 1 ? Math.abs(grey[y][x - 1] - grey[y][x + 1]) : 255;
+				BigDecimal up = costs[y - 1][x].add(BigDecimal.valueOf(forward));
+				BigDecimal left = x > 0
+						? costs[y - 1][x - 1].add(BigDecimal.valueOf(forward + Math.abs(grey[y][x - 1] - grey[y - 1][x])))
+						: null;
+				BigDecimal right = x < columns - 1
+						? costs[y - 1][x + 1].add(BigDecimal.valueOf(forward + Math.abs(grey[y - 1][x] - grey[y][x + 1])))
+						: null;
+				BigDecimal min = up;
+				if (right != null && less(right, up) && (left == null || less(right, left))) {
+					min = right;
+					steps[y][x] = 1;
+				} else if (left != null && less(left, up) && (right == null || less(left, right))) {
+					min = left;
+					steps[y][x] = -1;
+				}
+				costs[y][x] = energy.add(min);
+			}
+		}
+
+		int x = 0;
+		for (int c = 1; c < columns; c++) {
+			if (less(costs[rows - 1][c], costs[rows - 1][x]))
+				x = c;
+		}
+		int[] ans = new int[rows];
+		for (int y = rows - 1; y >= 0; y--) {
+			ans[y] = x;
+			x += steps[y][x];
+		}
+		return ans;
+	}
+
+	private static boolean less(BigDecimal a, BigDecimal b) {
+		return b.subtract(a).compareTo(TIE) > 0;
+	}
+
+	// A small grey image of 2 to 8 levels (or of any level, one time in four).
+	private static BufferedImage random(Random random) {
+		int width = 4 + random.nextInt(60);
+		int height = 4 + random.nextInt(60);
+		int levels = random.nextInt(4) == 0 ? 256 : 2 + random.nextInt(7);
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				ans.setRGB(x, y, random.nextInt(levels) * 255 / (levels - 1) * 0x10101);
+		}
+		return ans;
+	}
+
+	// The image with every pixel replaced by the mean of its channels, the grey level the carver sees.
+	private static BufferedImage grey(BufferedImage img) {
+		BufferedImage ans = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				int rgb = img.getRGB(x, y);
+				int v = (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3;
+				ans.setRGB(x, y, v * 0x10101);
+			}
+		}
+		return ans;
+	}
+
+	private static int[][] greyLevels(BufferedImage img) {
+		int[][] ans = new int[img.getHeight()][img.getWidth()];
+		for (int y = 0; y < ans.length; y++) {
+			for (int x = 0; x < ans[y].length; x++)
+				ans[y][x] = img.getRGB(x, y) & 0xff;
+		}
+		return ans;
+	}
+
+	private static int[] pixels(BufferedImage img) {
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+}
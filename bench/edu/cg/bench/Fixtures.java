@@ -0,0 +1,105 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/*
+ * The inputs and counters the benchmarks share: synthetic images, the pictures, and the bytes the
+ * JVM allocated.
+ */
+final class Fixtures {
+	private Fixtures() {}
+
+	/*
+	 * Smooth gradients with a few sharp edged regions and some grain, like a photo: seams have
+	 * something to avoid, and every pixel differs from its neighbours.
+	 */
+	static BufferedImage synthetic(int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[width];
+		Random random = new Random(8);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = (int)(127 + 60 * Math.sin(x * 0.003 + y * 0.001) + 40 * Math.cos(y * 0.007))
+						+ random.nextInt(9) - 4;
+				if ((x / 640 + y / 540) % 3 == 0)
+					v = 255 - v;
+				row[x] = (v << 16) | ((v * 3 / 4) << 8) | (255 - v);
+			}
+			img.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return img;
+	}
+
+	// A synthetic image of about the given number of megapixels, 4:3.
+	static BufferedImage synthetic(double megapixels) {
+		int width = (int)Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+		return synthetic(width, width * 3 / 4);
+	}
+
+	// Faster waves with strong grain, so that every output pixel of a resampling blends different values.
+	static BufferedImage noise(int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[width];
+		Random random = new Random(8);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = (int)(127 + 100 * Math.sin(x * 0.01 + y * 0.004)) + random.nextInt(17) - 8;
+				v = Math.max(0, Math.min(255, v));
+				row[x] = (v << 16) | ((255 - v) << 8) | (v / 2);
+			}
+			img.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return img;
+	}
+
+	/*
+	 * The image a benchmark parameter names: a synthetic one of the given megapixels ("12MP"), or a
+	 * file of the pictures directory.
+	 */
+	static BufferedImage image(String name) throws IOException {
+		if (name.endsWith("MP"))
+			return synthetic(Double.parseDouble(name.substring(0, name.length() - 2)));
+		BufferedImage ans = ImageIO.read(new File("pictures", name));
+		if (ans == null)
+			throw new IOException("Not an image: pictures/" + name);
+		return ans;
+	}
+
+	// The images of a directory by file name, none if it doesn't exist.
+	static Map<String, BufferedImage> pictures(String directory) throws IOException {
+		Map<String, BufferedImage> ans = new LinkedHashMap<>();
+		File[] files = new File(directory).listFiles();
+		if (files == null)
+			return ans;
+		for (File file : files) {
+			BufferedImage img = ImageIO.read(file);
+			if (img != null)
+				ans.put(file.getName(), img);
+		}
+		return ans;
+	}
+
+	// The bytes allocated so far by the live threads of the JVM (a HotSpot JVM counts them).
+	static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long ans = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0)
+				ans += bytes;
+		}
+		return ans;
+	}
+
+	// The bytes allocated so far by the current thread (a HotSpot JVM counts them).
+	static long threadAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+}
@@ -0,0 +1,53 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.CostMode;
+import edu.cg.RGBWeights;
+
+/*
+ * The speedup of the incremental DP repair over a full DP pass per seam, as the number of seams
+ * grows: carves 1, 4, 16, ... vertical seams off a synthetic image both ways and reports the best
+ * time of each and their ratio. The first seam needs a full pass either way, so the speedup grows
+ * with the number of seams towards the ratio of a full pass to a repair.
+ *
+ * Usage: IncrementalCostBenchmark [width] [height] [max seams] [runs]
+ * Defaults: 1920x1080, up to 256 seams, 3 runs.
+ */
+public class IncrementalCostBenchmark {
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+		int maxSeams = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+		BufferedImage img = Fixtures.synthetic(width, height);
+		System.out.printf("%dx%d%n", width, height);
+		System.out.println("cost mode, seams, full ms, incremental ms, speedup");
+		for (CostMode mode : new CostMode[] { CostMode.DOUBLE, CostMode.FIXED_POINT }) {
+			for (int seams = 1; seams <= Math.min(maxSeams, width / 2); seams *= 4) {
+				double full = run(img, seams, mode, false, runs);
+				double incremental = run(img, seams, mode, true, runs);
+				System.out.printf("%s, %d, %.0f, %.0f, %.1fx%n", mode, seams, full, incremental, full / incremental);
+			}
+		}
+	}
+
+	// The best time in ms to carve the seams; the first run warms up the JIT.
+	private static double run(BufferedImage img, int seams, CostMode mode, boolean incremental, int runs) {
+		double ans = Double.MAX_VALUE;
+		for (int run = 0; run <= runs; run++) {
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, img.getWidth() - seams, img.getHeight(),
+					new RGBWeights(1, 1, 1));
+			carver.setCostMode(mode);
+			carver.setIncrementalCosts(incremental);
+			long start = System.nanoTime();
+			carver.carveImage(CarvingScheme.VERTICAL_HORIZONTAL);
+			if (run > 0)
+				ans = Math.min(ans, (System.nanoTime() - start) / 1e6);
+		}
+		return ans;
+	}
+}
@@ -0,0 +1,100 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.CostMode;
+import edu.cg.RGBWeights;
+
+/*
+ * Checks that the incremental DP repair finds exactly the seams a full DP pass per seam finds:
+ * carves random images (with few grey levels, so that ties are common), the pictures and a
+ * synthetic photo both ways, with every cost mode the repair applies to and every carving scheme
+ * but BATCHED (which removes batches of seams only without the repair), and compares the carved images and the painted seams pixel by pixel. Exits with 1 if any differ.
+ *
+ * Usage: IncrementalCostCheck [pictures directory] [random images]
+ * Defaults: pictures, 200 random images.
+ */
+public class IncrementalCostCheck {
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int randomImages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		Random random = new Random(4);
+		for (int i = 0; i < randomImages; i++)
+			images.put("random " + i, random(random));
+		images.putAll(Fixtures.pictures(pictures));
+		images.put("synthetic 640x480", Fixtures.synthetic(640, 480));
+
+		int checks = 0;
+		int failures = 0;
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			int outWidth = img.getWidth() - Math.max(1, img.getWidth() / 4);
+			int outHeight = img.getHeight() - Math.max(1, img.getHeight() / 5);
+			for (CostMode mode : new CostMode[] { CostMode.DOUBLE, CostMode.FIXED_POINT }) {
+				for (CarvingScheme scheme : CarvingScheme.values()) {
+					if (scheme == CarvingScheme.OPTIMAL && img.getWidth() * img.getHeight() > 50_000)
+						continue; // a DP over the whole transport map
+					if (scheme == CarvingScheme.BATCHED)
+						continue; // batches only without the repair
+					checks++;
+					String diff = compare(img, outWidth, outHeight, mode, scheme);
+					if (diff != null) {
+						failures++;
+						System.out.printf("%s, %s, %s: %s%n", entry.getKey(), mode, scheme, diff);
+					}
+				}
+			}
+		}
+		System.out.printf("%d of %d checks differ%n", failures, checks);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// Where the two ways differ, or null if they don't.
+	private static String compare(BufferedImage img, int outWidth, int outHeight, CostMode mode, CarvingScheme scheme) {
+		if (!Arrays.equals(pixels(carver(img, outWidth, outHeight, mode, true).carveImage(scheme)),
+				pixels(carver(img, outWidth, outHeight, mode, false).carveImage(scheme))))
+			return "carved images differ";
+		if (scheme != CarvingScheme.VERTICAL_HORIZONTAL)
+			return null;
+		for (boolean vertical : new boolean[] { true, false }) {
+			if (!Arrays.equals(pixels(carver(img, outWidth, outHeight, mode, true).showSeams(vertical, 0xff0000)),
+					pixels(carver(img, outWidth, outHeight, mode, false).showSeams(vertical, 0xff0000))))
+				return (vertical ? "vertical" : "horizontal") + " seams differ";
+		}
+		return null;
+	}
+
+	private static BasicSeamsCarver carver(BufferedImage img, int outWidth, int outHeight, CostMode mode, boolean incremental) {
+		BasicSeamsCarver ans = new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, new RGBWeights(1, 1, 1));
+		ans.setCostMode(mode);
+		ans.setIncrementalCosts(incremental);
+		return ans;
+	}
+
+	// A small image of 2 to 8 grey levels (or of any colour, one time in four).
+	private static BufferedImage random(Random random) {
+		int width = 4 + random.nextInt(60);
+		int height = 4 + random.nextInt(60);
+		int levels = random.nextInt(4) == 0 ? 256 : 2 + random.nextInt(7);
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = random.nextInt(levels) * 255 / (levels - 1);
+				ans.setRGB(x, y, levels == 256 ? random.nextInt(1 << 24) : v * 0x10101);
+			}
+		}
+		return ans;
+	}
+
+	private static int[] pixels(BufferedImage img) {
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+}
@@ -0,0 +1,169 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import edu.cg.AdvancedSeamsCarver;
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.CostMode;
+import edu.cg.RGBWeights;
+
+/*
+ * Checks the seam insertion of AdvancedSeamsCarver against a reference built from the painted
+ * seams: every pixel a seam went through is followed by the average of it and its next neighbour
+ * (its previous one at the end of the row or column), and the second dimension is resized on the
+ * result of the first, with the same settings. Enlarges and mixes enlarging with carving, both
+ * dimensions first, with the default settings, fixed point costs without the DP repair, and a
+ * pyramid search, which would find other seams for the second dimension if its carver did not get
+ * the settings. Compares the sizes and the pixels. Exits with 1 if any differ.
+ *
+ * Usage: InsertionCheck [pictures directory] [random images]
+ * Defaults: pictures, 100 random images.
+ */
+public class InsertionCheck {
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 1, 1);
+
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int randomImages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		Random random = new Random(11);
+		for (int i = 0; i < randomImages; i++)
+			images.put("random " + i, random(random));
+		images.putAll(Fixtures.pictures(pictures));
+		images.put("synthetic 320x240", Fixtures.synthetic(320, 240));
+
+		Map<String, Consumer<BasicSeamsCarver>> settings = new LinkedHashMap<>();
+		settings.put("defaults", carver -> {});
+		settings.put("fixed point, full DP passes", carver -> {
+			carver.setCostMode(CostMode.FIXED_POINT);
+			carver.setIncrementalCosts(false);
+		});
+		settings.put("pyramid", carver -> carver.setPyramid(2, 2));
+
+		int checks = 0;
+		int failures = 0;
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			int width = img.getWidth();
+			int height = img.getHeight();
+			int columns = Math.max(1, width / 3);
+			int rows = Math.max(1, height / 4);
+			int[][] sizes = { { width + columns, height }, { width, height + rows }, { width + columns, height + rows },
+					{ width + columns, height - rows }, { width - columns, height + rows } };
+			for (Map.Entry<String, Consumer<BasicSeamsCarver>> setting : settings.entrySet()) {
+				for (CarvingScheme scheme : new CarvingScheme[] { CarvingScheme.VERTICAL_HORIZONTAL, CarvingScheme.HORIZONTAL_VERTICAL }) {
+					for (int[] size : sizes) {
+						checks++;
+						AdvancedSeamsCarver carver = new AdvancedSeamsCarver(s -> {}, img, size[0], size[1], WEIGHTS);
+						setting.getValue().accept(carver);
+						BufferedImage resized = carver.resizeWithSeamCarving(scheme);
+						BufferedImage expected = reference(img, size[0], size[1], scheme, setting.getValue());
+						String diff = resized.getWidth() != size[0] || resized.getHeight() != size[1]
+								? "resized to " + resized.getWidth() + "x" + resized.getHeight()
+								: same(resized, expected) ? null : "pixels differ from the reference";
+						if (diff != null) {
+							failures++;
+							System.out.printf("%s, %s, %s, %dx%d: %s%n", entry.getKey(), setting.getKey(), scheme,
+									size[0], size[1], diff);
+						}
+					}
+				}
+			}
+		}
+		System.out.printf("%d of %d checks differ%n", failures, checks);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// One dimension at a time, in the order of the scheme.
+	private static BufferedImage reference(BufferedImage img, int outWidth, int outHeight, CarvingScheme scheme,
+			Consumer<BasicSeamsCarver> setting) {
+		if (scheme == CarvingScheme.HORIZONTAL_VERTICAL) {
+			BufferedImage first = resize(img, img.getWidth(), outHeight, setting);
+			return resize(first, outWidth, outHeight, setting);
+		}
+		BufferedImage first = resize(img, outWidth, img.getHeight(), setting);
+		return resize(first, outWidth, outHeight, setting);
+	}
+
+	// Changes a single dimension of the image, carving it smaller or inserting the painted seams.
+	private static BufferedImage resize(BufferedImage img, int outWidth, int outHeight, Consumer<BasicSeamsCarver> setting) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		if (outWidth == width && outHeight == height)
+			return img;
+		if (outWidth < width || outHeight < height)
+			return carver(img, outWidth, outHeight, setting).carveImage(CarvingScheme.VERTICAL_HORIZONTAL);
+
+		boolean vertical = outWidth > width;
+		BufferedImage red = carver(img, outWidth, outHeight, setting).showSeams(vertical, 0xff0000);
+		BufferedImage green = carver(img, outWidth, outHeight, setting).showSeams(vertical, 0x00ff00);
+		int[] in = pixels(img);
+		int[] reds = pixels(red);
+		int[] greens = pixels(green);
+		BufferedImage ans = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_ARGB);
+		// A line is a row for vertical seams and a column for horizontal ones.
+		int lines = vertical ? height : width;
+		int length = vertical ? width : height;
+		for (int line = 0; line < lines; line++) {
+			int o = 0;
+			for (int p = 0; p < length; p++) {
+				int i = vertical ? line * width + p : p * width + line;
+				set(ans, vertical, line, o++, in[i]);
+				// Painted in both colours: a seam went through it (no pixel has both colours).
+				if ((reds[i] & 0xffffff) == 0xff0000 && (greens[i] & 0xffffff) == 0x00ff00) {
+					int neighbour = p + 1 < length ? p + 1 : Math.max(0, p - 1);
+					int n = vertical ? line * width + neighbour : neighbour * width + line;
+					set(ans, vertical, line, o++, average(in[i], in[n]));
+				}
+			}
+		}
+		return ans;
+	}
+
+	private static void set(BufferedImage img, boolean vertical, int line, int p, int argb) {
+		if (vertical)
+			img.setRGB(p, line, argb);
+		else
+			img.setRGB(line, p, argb);
+	}
+
+	private static int average(int argb1, int argb2) {
+		return ((argb1 >>> 1) & 0x7f7f7f7f) + ((argb2 >>> 1) & 0x7f7f7f7f) + (argb1 & argb2 & 0x01010101);
+	}
+
+	private static BasicSeamsCarver carver(BufferedImage img, int outWidth, int outHeight, Consumer<BasicSeamsCarver> setting) {
+		BasicSeamsCarver ans = new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, WEIGHTS);
+		setting.accept(ans);
+		return ans;
+	}
+
+	// A small image of 2 to 8 grey levels (or of any colour, one time in four).
+	private static BufferedImage random(Random random) {
+		int width = 4 + random.nextInt(60);
+		int height = 4 + random.nextInt(60);
+		int levels = random.nextInt(4) == 0 ? 256 : 2 + random.nextInt(7);
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = random.nextInt(levels) * 255 / (levels - 1);
+				ans.setRGB(x, y, levels == 256 ? random.nextInt(1 << 24) : v * 0x10101);
+			}
+		}
+		return ans;
+	}
+
+	private static boolean same(BufferedImage a, BufferedImage b) {
+		return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight() && Arrays.equals(pixels(a), pixels(b));
+	}
+
+	private static int[] pixels(BufferedImage img) {
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+}
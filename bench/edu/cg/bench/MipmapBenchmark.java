@@ -0,0 +1,60 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.function.Function;
+
+import edu.cg.ImageProcessor;
+import edu.cg.RGBWeights;
+
+/*
+ * Bilinear downscales with the mipmap levels (bilinearMipmap) against the plain bilinear pass, and
+ * against the area average they approximate, on a synthetic 6000x4000 (24 MP) image scaled down to thumbnails and to
+ * medium sizes. Reports the operations per second and the best time of the call on a processor that
+ * has converted its image to packed pixels already, and the bytes allocated per call over all the
+ * threads of the JVM.
+ *
+ * Usage: MipmapBenchmark [runs] [parallelism]
+ * Defaults: 10 runs, the parallelism of the common pool. Needs a heap of about 1GB.
+ */
+public class MipmapBenchmark {
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+		BufferedImage img = Fixtures.noise(6000, 4000);
+		System.out.println("scale, engine, ops/s, best ms, MB allocated/op, speedup over direct");
+		for (int[] size : new int[][] { { 400, 267 }, { 1000, 667 }, { 2500, 1667 } }) {
+			String scale = "6000x4000 -> " + size[0] + "x" + size[1];
+			double[] direct = run(img, size[0], size[1], ImageProcessor::bilinear, runs, parallelism);
+			print(scale, "direct", direct, direct);
+			print(scale, "mipmap", run(img, size[0], size[1], ImageProcessor::bilinearMipmap, runs, parallelism), direct);
+			print(scale, "area average", run(img, size[0], size[1], ImageProcessor::areaAverage, runs, parallelism), direct);
+		}
+	}
+
+	private static void print(String scale, String engine, double[] result, double[] direct) {
+		System.out.printf("%s, %s, %.1f, %.1f, %.1f, %.2fx%n", scale, engine, result[0], result[1], result[2] / 1e6,
+				direct[1] / result[1]);
+	}
+
+	// Operations per second, best time in ms and bytes allocated per call; the first run warms up the JIT.
+	private static double[] run(BufferedImage img, int outWidth, int outHeight, Function<ImageProcessor, BufferedImage> op,
+			int runs, int parallelism) {
+		ImageProcessor processor = new ImageProcessor(s -> {}, img, new RGBWeights(1, 1, 1), outWidth, outHeight);
+		if (parallelism > 0)
+			processor.setForEachParallelism(parallelism);
+		op.apply(processor);
+
+		double best = Double.MAX_VALUE;
+		long total = 0;
+		long allocated = Fixtures.allocatedBytes();
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			op.apply(processor);
+			long elapsed = System.nanoTime() - start;
+			total += elapsed;
+			best = Math.min(best, elapsed / 1e6);
+		}
+		return new double[] { runs * 1e9 / total, best, (double)(Fixtures.allocatedBytes() - allocated) / runs };
+	}
+}
@@ -0,0 +1,111 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.ImageProcessor;
+import edu.cg.RGBWeights;
+
+/*
+ * JMH benchmarks of every ImageProcessor operation, on synthetic images of several sizes and on
+ * the pictures. An operation includes building its processor, as a caller would; the resamplings
+ * scale to 3/4 of the size. Run with the allocation profiler and JSON results:
+ *
+ *   gradle :bench:jmh -PjmhArgs='OperationBenchmark'
+ *
+ * which passes -prof gc -rf json and writes bench/build/jmh/results.json. A 50 MP image needs a
+ * heap of about 3GB for the resampling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class OperationBenchmark {
+	/*
+	 * A synthetic image of the given megapixels ("12MP"), or a file of the pictures directory.
+	 */
+	@Param({ "0.3MP", "1MP", "4MP", "12MP", "50MP", "beach.jpg", "bench.png" })
+	public String image;
+
+	private final RGBWeights weights = new RGBWeights(1, 1, 1);
+	private BufferedImage img;
+	private int scaledWidth;
+	private int scaledHeight;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		img = Fixtures.image(image);
+		scaledWidth = img.getWidth() * 3 / 4;
+		scaledHeight = img.getHeight() * 3 / 4;
+	}
+
+	@Benchmark
+	public BufferedImage changeHue() {
+		return new ImageProcessor(s -> {}, img, weights).changeHue();
+	}
+
+	@Benchmark
+	public BufferedImage greyscale() {
+		return new ImageProcessor(s -> {}, img, weights).greyscale();
+	}
+
+	@Benchmark
+	public BufferedImage gradientMagnitude() {
+		return new ImageProcessor(s -> {}, img, weights).gradientMagnitude();
+	}
+
+	@Benchmark
+	public BufferedImage duplicateWorkingImage() {
+		return new ImageProcessor(s -> {}, img, weights).duplicateWorkingImage();
+	}
+
+	@Benchmark
+	public BufferedImage nearestNeighbor() {
+		return scaler().nearestNeighbor();
+	}
+
+	@Benchmark
+	public BufferedImage bilinear() {
+		return scaler().bilinear();
+	}
+
+	@Benchmark
+	public BufferedImage bilinearMipmap() {
+		return scaler().bilinearMipmap();
+	}
+
+	@Benchmark
+	public BufferedImage bicubic() {
+		return scaler().bicubic();
+	}
+
+	@Benchmark
+	public BufferedImage lanczos3() {
+		return scaler().lanczos3();
+	}
+
+	@Benchmark
+	public BufferedImage areaAverage() {
+		return scaler().areaAverage();
+	}
+
+	private ImageProcessor scaler() {
+		return new ImageProcessor(s -> {}, img, weights, scaledWidth, scaledHeight);
+	}
+}
@@ -0,0 +1,60 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.RGBWeights;
+
+/*
+ * Compares pyramid seam search with exact carving: wall time, and the energy of the removed
+ * pixels relative to the exact seams (the seam-energy error).
+ *
+ * Usage: PyramidBenchmark [pictures directory] [seams] [levels] [band]
+ * Defaults: pictures, 20 seams, 3 levels, a band of BasicSeamsCarver.DEFAULT_PYRAMID_BAND.
+ * Besides the pictures, a synthetic 7680x4320 image is carved, which needs a heap of about 4GB.
+ */
+public class PyramidBenchmark {
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int seams = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int levels = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int band = args.length > 3 ? Integer.parseInt(args[3]) : BasicSeamsCarver.DEFAULT_PYRAMID_BAND;
+
+		Map<String, BufferedImage> images = Fixtures.pictures(pictures);
+		images.put("synthetic 8K", Fixtures.synthetic(7680, 4320));
+
+		System.out.println("image, size, seams, exact ms, pyramid ms, speedup, seam energy error");
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			int n = Math.min(seams, img.getWidth() / 2);
+
+			double[] exact = run(img, n, 0, band);
+			double[] pyramid = run(img, n, levels, band);
+
+			System.out.printf("%s, %dx%d, %d, %.0f, %.0f, %.2fx, %+.2f%%%n", entry.getKey(),
+					img.getWidth(), img.getHeight(), n, exact[0], pyramid[0], exact[0] / pyramid[0],
+					100 * (pyramid[1] / exact[1] - 1));
+		}
+	}
+
+	/*
+	 * Carves the image twice (the first run warms up the JIT) and returns the best time in ms and the
+	 * energy of the removed pixels. Only the carving is timed, not the greyscale and energy of the
+	 * constructor, and only one carver is alive at a time (an 8K carver takes about a gigabyte).
+	 */
+	private static double[] run(BufferedImage img, int seams, int levels, int band) {
+		double[] ans = { Double.MAX_VALUE, 0 };
+		for (int run = 0; run < 2; run++) {
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, img.getWidth() - seams,
+					img.getHeight(), new RGBWeights(1, 1, 1));
+			carver.setPyramid(levels, band);
+			long start = System.nanoTime();
+			carver.carveImage(CarvingScheme.VERTICAL_HORIZONTAL);
+			ans[0] = Math.min(ans[0], (System.nanoTime() - start) / 1e6);
+			ans[1] = carver.getRemovedEnergy();
+		}
+		return ans;
+	}
+}
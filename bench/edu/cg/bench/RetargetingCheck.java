@@ -0,0 +1,148 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.RGBWeights;
+import edu.cg.RetargetingIndex;
+
+/*
+ * Checks the retargeting index: that changing a single dimension with it gives exactly what carving
+ * gives (VERTICAL_HORIZONTAL and HORIZONTAL_VERTICAL both, which carve a single direction alike),
+ * for the pictures, a synthetic photo and random images with few grey levels, so that ties are
+ * common; that an index read back from what it wrote retargets to the same images; and that a
+ * header too large for the ranks is rejected. Exits with 1 if any check fails.
+ *
+ * Usage: RetargetingCheck [pictures directory] [random images]
+ * Defaults: pictures, 100 random images.
+ */
+public class RetargetingCheck {
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 1, 1);
+
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int randomImages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		Random random = new Random(13);
+		for (int i = 0; i < randomImages; i++)
+			images.put("random " + i, random(random));
+		images.putAll(Fixtures.pictures(pictures));
+		images.put("synthetic 320x240", Fixtures.synthetic(320, 240));
+
+		int checks = 0;
+		int failures = 0;
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			int width = img.getWidth();
+			int height = img.getHeight();
+			// Pictures are only indexed for a quarter of each dimension, which keeps the check short.
+			boolean small = width * height <= 64 * 64;
+			int maxVerticalSeams = small ? width - 2 : width / 4;
+			int maxHorizontalSeams = small ? height - 2 : height / 4;
+			RetargetingIndex index = RetargetingIndex.build(s -> {}, img, WEIGHTS, maxVerticalSeams, maxHorizontalSeams);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			index.write(bytes);
+			RetargetingIndex read = RetargetingIndex.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+			for (int seams : counts(maxVerticalSeams)) {
+				for (CarvingScheme scheme : new CarvingScheme[] { CarvingScheme.VERTICAL_HORIZONTAL, CarvingScheme.HORIZONTAL_VERTICAL }) {
+					checks++;
+					if (!same(index.retarget(img, width - seams, height), carve(img, width - seams, height, scheme))) {
+						failures++;
+						System.out.printf("%s, %d vertical seams, %s: retargeted and carved images differ%n",
+								entry.getKey(), seams, scheme);
+					}
+				}
+			}
+			for (int seams : counts(maxHorizontalSeams)) {
+				for (CarvingScheme scheme : new CarvingScheme[] { CarvingScheme.VERTICAL_HORIZONTAL, CarvingScheme.HORIZONTAL_VERTICAL }) {
+					checks++;
+					if (!same(index.retarget(img, width, height - seams), carve(img, width, height - seams, scheme))) {
+						failures++;
+						System.out.printf("%s, %d horizontal seams, %s: retargeted and carved images differ%n",
+								entry.getKey(), seams, scheme);
+					}
+				}
+			}
+
+			int outWidth = width - maxVerticalSeams / 2;
+			int outHeight = height - maxHorizontalSeams / 2;
+			int[][] sizes = { { width - maxVerticalSeams, height }, { width, height - maxHorizontalSeams },
+					{ outWidth, outHeight }, { width - maxVerticalSeams, height - maxHorizontalSeams } };
+			for (int[] size : sizes) {
+				checks++;
+				if (!same(read.retarget(img, size[0], size[1]), index.retarget(img, size[0], size[1]))) {
+					failures++;
+					System.out.printf("%s, %dx%d: the index read back retargets differently%n", entry.getKey(), size[0], size[1]);
+				}
+			}
+		}
+
+		checks++;
+		if (!rejectsTooLarge()) {
+			failures++;
+			System.out.println("An index header of more than Integer.MAX_VALUE pixels was not rejected");
+		}
+
+		System.out.printf("%d of %d checks differ%n", failures, checks);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// No seams, one, a quarter, half and all of them.
+	private static int[] counts(int maxSeams) {
+		return Arrays.stream(new int[] { 0, 1, maxSeams / 4, maxSeams / 2, maxSeams })
+				.filter(n -> n <= maxSeams).distinct().toArray();
+	}
+
+	private static BufferedImage carve(BufferedImage img, int outWidth, int outHeight, CarvingScheme scheme) {
+		return new BasicSeamsCarver(s -> {}, img, outWidth, outHeight, WEIGHTS).carveImage(scheme);
+	}
+
+	// A header of 65536x65536 pixels, twice the ranks a Java array can hold.
+	private static boolean rejectsTooLarge() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		for (int value : new int[] { 0x53435249, 1, 65536, 65536, 0, 0 })
+			header.writeInt(value);
+		try {
+			RetargetingIndex.read(new ByteArrayInputStream(bytes.toByteArray()));
+			return false;
+		} catch (IOException e) {
+			return e.getMessage().startsWith("Retargeting index too large");
+		}
+	}
+
+	// A small image of 2 to 8 grey levels (or of any colour, one time in four).
+	private static BufferedImage random(Random random) {
+		int width = 4 + random.nextInt(60);
+		int height = 4 + random.nextInt(60);
+		int levels = random.nextInt(4) == 0 ? 256 : 2 + random.nextInt(7);
+		BufferedImage ans = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = random.nextInt(levels) * 255 / (levels - 1);
+				ans.setRGB(x, y, levels == 256 ? random.nextInt(1 << 24) : v * 0x10101);
+			}
+		}
+		return ans;
+	}
+
+	private static boolean same(BufferedImage a, BufferedImage b) {
+		return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight() && Arrays.equals(pixels(a), pixels(b));
+	}
+
+	private static int[] pixels(BufferedImage img) {
+		return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+	}
+}
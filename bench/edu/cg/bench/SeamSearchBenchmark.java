@@ -0,0 +1,60 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.SeamSearch;
+import edu.cg.RGBWeights;
+
+/*
+ * The quality / latency tradeoff of the seam searches: the time to build the carver and to carve,
+ * and the energy of the removed pixels relative to exact seams.
+ *
+ * Usage: SeamSearchBenchmark [pictures directory] [seams]
+ * Defaults: pictures, 50 seams. Besides the pictures, a synthetic 4000x3000 (12 MP) photo is
+ * carved, which needs a heap of about 2GB.
+ */
+public class SeamSearchBenchmark {
+	public static void main(String[] args) throws Exception {
+		String pictures = args.length > 0 ? args[0] : "pictures";
+		int seams = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		Map<String, BufferedImage> images = Fixtures.pictures(pictures);
+		images.put("synthetic 12 MP", Fixtures.synthetic(4000, 3000));
+
+		System.out.println("image, search, build ms, carve ms, seam energy error");
+		for (Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+			BufferedImage img = entry.getValue();
+			int n = Math.min(seams, img.getWidth() / 2);
+			double exactEnergy = 0;
+			for (SeamSearch search : SeamSearch.values()) {
+				double[] result = run(img, n, search);
+				if (search == SeamSearch.EXACT)
+					exactEnergy = result[2];
+				System.out.printf("%s, %s, %.0f, %.0f, %+.2f%%%n", entry.getKey(), search,
+						result[0], result[1], 100 * (result[2] / exactEnergy - 1));
+			}
+		}
+	}
+
+	/*
+	 * Carves twice (the first run warms up the JIT) and returns the best times in ms to build the
+	 * carver and to carve, and the energy of the removed pixels.
+	 */
+	private static double[] run(BufferedImage img, int seams, SeamSearch search) {
+		double[] ans = { Double.MAX_VALUE, Double.MAX_VALUE, 0 };
+		for (int run = 0; run < 2; run++) {
+			long start = System.nanoTime();
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, img.getWidth() - seams,
+					img.getHeight(), new RGBWeights(1, 1, 1));
+			long built = System.nanoTime();
+			carver.carveImage(CarvingScheme.VERTICAL_HORIZONTAL, search);
+			ans[0] = Math.min(ans[0], (built - start) / 1e6);
+			ans[1] = Math.min(ans[1], (System.nanoTime() - built) / 1e6);
+			ans[2] = carver.getRemovedEnergy();
+		}
+		return ans;
+	}
+}
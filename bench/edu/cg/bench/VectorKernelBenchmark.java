@@ -0,0 +1,106 @@
+package edu.cg.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.ImageProcessor;
+import edu.cg.RGBWeights;
+import edu.cg.Vectors;
+
+/*
+ * The per pixel operations with the Vector API kernels against the scalar loops, on a synthetic
+ * 12 MP image: changeHue, greyscale, gradientMagnitude and building a seams carver (its greyscale
+ * and energy map). Which kernels run is fixed when the JVM starts, so the benchmark runs itself
+ * twice in child JVMs, with jdk.incubator.vector and without it, and prints both best times side by
+ * side. The processors have converted their image to packed pixels already.
+ *
+ * Usage: VectorKernelBenchmark [runs]
+ * Defaults: 10 runs. Needs a heap of about 2GB, and the classes of the vector source root on the
+ * class path.
+ */
+public class VectorKernelBenchmark {
+	private static final String CHILD = "--child";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals(CHILD)) {
+			measure(Integer.parseInt(args[1]));
+			return;
+		}
+
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		Map<String, double[]> scalar = run(false, runs);
+		Map<String, double[]> vector = run(true, runs);
+		System.out.println("operation, scalar ms, vector ms, speedup");
+		for (Map.Entry<String, double[]> entry : scalar.entrySet()) {
+			double[] simd = vector.get(entry.getKey());
+			double scalarMillis = entry.getValue()[0];
+			if (simd == null)
+				System.out.printf("%s, %.1f,,%n", entry.getKey(), scalarMillis);
+			else
+				System.out.printf("%s, %.1f, %.1f, %.2fx%n", entry.getKey(), scalarMillis, simd[0], scalarMillis / simd[0]);
+		}
+	}
+
+	// The best times by operation of a child JVM; none for the vector run if its kernels don't run.
+	private static Map<String, double[]> run(boolean vector, int runs) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-Xmx2g");
+		if (vector)
+			command.add("--add-modules=jdk.incubator.vector");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(VectorKernelBenchmark.class.getName());
+		command.add(CHILD);
+		command.add(Integer.toString(runs));
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+
+		Map<String, double[]> ans = new LinkedHashMap<>();
+		String kernels = null;
+		for (String line : new String(process.getInputStream().readAllBytes()).split("\n")) {
+			String[] fields = line.split(", ");
+			if (fields.length == 2 && fields[0].equals("kernels"))
+				kernels = fields[1].trim();
+			else if (fields.length == 2)
+				ans.put(fields[0], new double[] { Double.parseDouble(fields[1]) });
+		}
+		if (process.waitFor() != 0)
+			throw new IllegalStateException("The " + (vector ? "vector" : "scalar") + " run failed");
+		System.out.println((vector ? "With" : "Without") + " jdk.incubator.vector: " + kernels + " kernels");
+		if (vector && !"Vector API".equals(kernels))
+			ans.clear();
+		return ans;
+	}
+
+	// Prints the kernels in use and the best time of every operation; the first run warms up the JIT.
+	private static void measure(int runs) {
+		System.out.println("kernels, " + Vectors.description());
+		BufferedImage img = Fixtures.synthetic(4000, 3000);
+		RGBWeights weights = new RGBWeights(2, 5, 3);
+		ImageProcessor processor = new ImageProcessor(s -> {}, img, weights);
+		processor.changeHue(); // converts the image
+
+		Map<String, Supplier<?>> operations = new LinkedHashMap<>();
+		operations.put("changeHue", processor::changeHue);
+		operations.put("greyscale", processor::greyscale);
+		operations.put("gradientMagnitude", processor::gradientMagnitude);
+		operations.put("seams carver", () -> new BasicSeamsCarver(s -> {}, img, 3990, 3000, weights));
+		for (Map.Entry<String, Supplier<?>> operation : operations.entrySet()) {
+			double best = Double.MAX_VALUE;
+			for (int run = 0; run <= runs; run++) {
+				long start = System.nanoTime();
+				operation.getValue().get();
+				double millis = (System.nanoTime() - start) / 1e6;
+				if (run > 0)
+					best = Math.min(best, millis);
+			}
+			System.out.println(operation.getKey() + ", " + best);
+		}
+	}
+}
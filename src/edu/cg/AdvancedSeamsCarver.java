@@ -1,15 +1,18 @@
 package edu.cg;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 
 public class AdvancedSeamsCarver extends BasicSeamsCarver {
-	// TODO :  Decide on the fields your AdvancedSeamsCarver should include.
-	
+	// The logger given by the caller, for the carver of the second dimension.
+	private final Logger callerLogger;
+
 	public AdvancedSeamsCarver(Logger logger, BufferedImage workingImage,
 			int outWidth, int outHeight, RGBWeights rgbWeights) {
 		super(logger, workingImage, outWidth, outHeight, rgbWeights);
+		this.callerLogger = logger;
 	}
-	
+
 	public BufferedImage resizeWithSeamCarving(CarvingScheme carveScheme) {
 		if (Math.abs(this.outWidth - this.inWidth) > this.inWidth / 2 || Math.abs(this.outHeight - this.inHeight) > this.inHeight / 2) {
 			throw new RuntimeException("Can not apply seam carving: too many seams.");
@@ -22,8 +25,126 @@ public class AdvancedSeamsCarver extends BasicSeamsCarver {
 			throw new IllegalArgumentException("Intermittent carving is not supported in upscaling.");
 		}
 		else {
-			// TODO: Implement the additional seam carving functionalities that AdvancedSeamsCarver offers.
-			throw new UnimplementedMethodException("carveImage");
+			SeamCarvingEvent event = seamCarvingEvent("Resize", carveScheme,
+					Math.abs(this.outWidth - this.inWidth), Math.abs(this.outHeight - this.inHeight));
+			// One dimension at a time: the seams of the second one are found on the result of the first.
+			boolean verticalFirst = carveScheme != CarvingScheme.HORIZONTAL_VERTICAL;
+			PixelBuffer ans = verticalFirst ? this.resizeWidth(carveScheme) : this.resizeHeight(carveScheme);
+			if (verticalFirst ? this.outHeight == this.inHeight : this.outWidth == this.inWidth) {
+				event.commit();
+				return toImage(ans);
+			}
+
+			AdvancedSeamsCarver next = new AdvancedSeamsCarver(callerLogger, toImage(ans), outWidth, outHeight, rgbWeights);
+			copySettingsTo(next);
+			shareInstrumentation(next);
+			ans = verticalFirst ? next.resizeHeight(carveScheme) : next.resizeWidth(carveScheme);
+			event.commit();
+			return toImage(ans);
+		}
+	}
+
+	// The working image with its width changed to outWidth, by removing or inserting vertical seams.
+	private PixelBuffer resizeWidth(CarvingScheme carveScheme) {
+		if (this.outWidth == this.inWidth) {
+			return workingPixels();
+		}
+
+		ArrayList<int[]> seams = findSeams(false, Math.abs(this.outWidth - this.inWidth), carveScheme);
+		if (this.outWidth < this.inWidth) {
+			return reconstructPixels();
+		}
+		logger.log("Inserting " + seams.size() + " vertical seams...");
+		return insertVerticalSeams(seams);
+	}
+
+	// The working image with its height changed to outHeight, by removing or inserting horizontal seams.
+	private PixelBuffer resizeHeight(CarvingScheme carveScheme) {
+		if (this.outHeight == this.inHeight) {
+			return workingPixels();
+		}
+
+		ArrayList<int[]> seams = findSeams(true, Math.abs(this.outHeight - this.inHeight), carveScheme);
+		if (this.outHeight < this.inHeight) {
+			return reconstructPixels();
+		}
+		logger.log("Inserting " + seams.size() + " horizontal seams...");
+		return insertHorizontalSeams(seams);
+	}
+
+	/*
+	 * Builds the enlarged image in a single pass over its rows: every pixel of the working image is
+	 * copied once, and each pixel that one of the seams went through is followed by a new pixel,
+	 * the average of it and its right neighbour (its left one on the last column).
+	 */
+	private PixelBuffer insertVerticalSeams(ArrayList<int[]> seams) {
+		CarvingPhaseEvent event = new CarvingPhaseEvent("Insert seams", this.inHeight, this.inWidth, seams.size());
+		boolean[] duplicated = markSeams(seams);
+		int[] in = workingPixels().pixels;
+		int width = this.inWidth;
+		PixelBuffer ans = new PixelBuffer(width + seams.size(), this.inHeight);
+		int[] out = ans.pixels;
+
+		int o = 0;
+		for (int y = 0; y < this.inHeight; y++) {
+			for (int i = y * width, end = i + width; i < end; i++) {
+				out[o++] = in[i];
+				if (duplicated[i]) {
+					int neighbour = i + 1 < end ? i + 1 : Math.max(y * width, i - 1);
+					out[o++] = PixelBuffer.average(in[i], in[neighbour]);
+				}
+			}
+		}
+
+		event.commit();
+		logger.log("Seam insertion done!");
+		return ans;
+	}
+
+	/*
+	 * The same for horizontal seams, still written row by row: sourceRows[x] is the next row of
+	 * the working image column x takes a pixel from, and the new pixel below a seam pixel is the
+	 * average of it and the pixel under it (above it on the last row).
+	 */
+	private PixelBuffer insertHorizontalSeams(ArrayList<int[]> seams) {
+		CarvingPhaseEvent event = new CarvingPhaseEvent("Insert seams", this.inWidth, this.inHeight, seams.size());
+		boolean[] duplicated = markSeams(seams);
+		int[] in = workingPixels().pixels;
+		int width = this.inWidth;
+		int height = this.inHeight;
+		PixelBuffer ans = new PixelBuffer(width, height + seams.size());
+		int[] out = ans.pixels;
+		int[] sourceRows = new int[width];
+		boolean[] pending = new boolean[width];
+
+		int o = 0;
+		for (int y = 0; y < ans.height; y++) {
+			for (int x = 0; x < width; x++, o++) {
+				if (pending[x]) {
+					int i = (sourceRows[x] - 1) * width + x;
+					int neighbour = sourceRows[x] < height ? i + width : Math.max(x, i - width);
+					out[o] = PixelBuffer.average(in[i], in[neighbour]);
+					pending[x] = false;
+				} else {
+					int i = sourceRows[x]++ * width + x;
+					out[o] = in[i];
+					pending[x] = duplicated[i];
+				}
+			}
+		}
+
+		event.commit();
+		logger.log("Seam insertion done!");
+		return ans;
+	}
+
+	private boolean[] markSeams(ArrayList<int[]> seams) {
+		boolean[] marks = new boolean[this.inWidth * this.inHeight];
+		for (int[] seam : seams) {
+			for (int index : seam) {
+				marks[index] = true;
+			}
 		}
+		return marks;
 	}
-}
\ No newline at end of file
+}
@@ -1,8 +1,12 @@
 package edu.cg;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntToDoubleFunction;
 
 
 public class BasicSeamsCarver extends ImageProcessor {
@@ -12,10 +16,17 @@ public class BasicSeamsCarver extends ImageProcessor {
     // VERTICAL_HORIZONTAL means vertical seams are removed first.
     // HORIZONTAL_VERTICAL means horizontal seams are removed first.
     // INTERMITTENT means seams are removed intermittently : vertical, horizontal, vertical, horizontal etc.
+    // one seam at a time (or, after setIntermittentRun, in runs of seams of each direction).
+    // BATCHED means vertical seams first, then horizontal ones, several disjoint seams per DP pass
+    // when every seam would take a full DP pass (FIXED_POINT_ROLLING); with the incremental DP repair
+    // it removes one seam at a time, as VERTICAL_HORIZONTAL does, which is faster there.
+    // OPTIMAL means the order of vertical and horizontal seams that removes the least energy.
     public static enum CarvingScheme {
         VERTICAL_HORIZONTAL("Vertical seams first"),
         HORIZONTAL_VERTICAL("Horizontal seams first"),
-        INTERMITTENT("Intermittent carving");
+        INTERMITTENT("Intermittent carving"),
+        BATCHED("Batched seams"),
+        OPTIMAL("Optimal order");
 
         public final String description;
 
@@ -24,74 +35,249 @@ public class BasicSeamsCarver extends ImageProcessor {
         }
     }
 
-    // A simple coordinate class which assists the implementation.
-    protected class Coordinate {
-        public int X;
-        public int Y;
+    // How the seam DP stores its cumulative costs and back tracking.
+    // DOUBLE keeps double costs and a byte per back tracking step.
+    // FIXED_POINT keeps int costs in fractions of an energy unit (as fine as the image size allows,
+    // see getFixedPointScale) and 2 bits per back tracking step.
+    // FIXED_POINT_ROLLING also keeps only the last two lines of costs, so every seam takes a full DP pass.
+    // The fixed point modes round the pixel energies, DOUBLE rounds the sums, and the DP breaks ties the
+    // same way in all modes; where a rounding makes or breaks a tie they pick different seams (rarely:
+    // see bench/CostModeCheck, where the fixed point modes match exact arithmetic more often).
+    public static enum CostMode {
+        DOUBLE("Double costs"),
+        FIXED_POINT("Fixed point costs"),
+        FIXED_POINT_ROLLING("Fixed point costs, two rolling lines");
 
-        public Coordinate(int X, int Y) {
-            this.X = X;
-            this.Y = Y;
+        public final String description;
+
+        private CostMode(String description) {
+            this.description = description;
         }
     }
 
-	BufferedImage originalImage;
-	private BufferedImage greyscaled;
+    // How the seams of a call to carveImage are searched. The approximate searches are meant for
+    // previews: BANDED runs the DP only in a band around the previous seam, WINDOWED only in a window
+    // of columns around it, and GREEDY follows the cheapest energy from row to row without any DP,
+    // taking a batch of disjoint seams out of each energy map.
+    public static enum SeamSearch {
+        EXACT("Exact seams"),
+        BANDED("Seams in a band around the previous seam"),
+        WINDOWED("Seams in a window of columns"),
+        GREEDY("Greedy seams");
+
+        public final String description;
+
+        private SeamSearch(String description) {
+            this.description = description;
+        }
+    }
+
+    // The coarsest and the finest fixed point scale, in cost units per energy unit.
+    private static final int MIN_FIXED_POINT_SCALE = 16;
+    private static final int MAX_FIXED_POINT_SCALE = 1 << 16;
+    private static final int FIXED_POINT_INFINITY = Integer.MAX_VALUE / 2;
+    // The largest cost a single DP step can add, in energy units: the energy (at most 255 * sqrt(2))
+    // and two forward terms.
+    private static final int FIXED_POINT_MAX_STEP = 361 + 2 * 255;
+
 	private int numOfVerticalSeams;
     private int numOfHorizontalSeams;
 
-    private double[][] costMatrix;
-    private int[][] carved;
-    private int[][] backTrack;
+    // All the per-pixel matrices are flat, row major arrays with a row stride. Seams are always
+    // carved as vertical seams: while horizontal seams are removed the buffers hold the transposed
+    // image (a buffer row is an image column), so cell (y, x) of the current (carved) image lives at
+    // y * stride + x, or at x * stride + y when transposed.
+    private int stride;
+    private boolean transposed;
+    private double[] costMatrix;
+    private boolean costsValid; // whether costMatrix/backTrack describe the current buffers
+    private int[] carved;
+    // The energy of every cell as its differences to the neighbours it is computed from, packed as
+    // dh << 8 | dv; ENERGY holds sqrt(dh^2 + dv^2) for every code, so this takes 2 bytes a cell.
+    private short[] energyCodes;
+    private byte[] backTrack; // -1, 0 or +1: the seam step taken from the previous row
+    private CostMode costMode;
+    private int[] fixedCosts;
+    private int fixedPointScale = MIN_FIXED_POINT_SCALE;
+    private int[][] costLines;
+    private int[] packedBackTrack;
     private int currWidth;
     private int currHeight;
-    private Coordinate[][] originalCoordinates;
-    private ArrayList<Coordinate[]> horizontalCoordinates;
-    private ArrayList<Coordinate[]> verticalCoordinates;
+    // The original pixel of every current cell, packed as y * inWidth + x.
+    private int[] originalIndices;
+    // Transposition targets, allocated on the first change of direction.
+    private int[] intScratch;
+    private short[] shortScratch;
+    private ArrayList<int[]> horizontalCoordinates;
+    private ArrayList<int[]> verticalCoordinates;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private double batchTolerance = DEFAULT_BATCH_TOLERANCE;
+    private int savedDPPasses;
+    private CarvingCosts carvingCosts = new CarvingCosts(); // learned by the carves within a budget
+    private double energyNanosPerCell; // of the first energy pass, the yardstick for costs not learned yet
+    private final BitSet batchCells = new BitSet(); // the cells claimed by the batch being built
+    private double removedEnergy; // the energy of the removed pixels, at the time of their removal
+    // Coarse to fine seam search: level l holds the averages of 2^l x 2^l blocks of the energy,
+    // with its own DP. Level 0 is the carver's own buffers.
+    private int pyramidLevels; // 0: seams are searched at full resolution only
+    private int pyramidBand = DEFAULT_PYRAMID_BAND;
+    private int[] levelRows;
+    private int[] levelColumns;
+    private double[][] levelEnergy;
+    private double[][] levelCosts;
+    private byte[][] levelBackTrack;
+    private int[] pyramidGuide; // the seam of level 1 the full resolution bands follow
+    private int optimalCheckpointInterval = 1;
+    private int intermittentRun = DEFAULT_INTERMITTENT_RUN;
+    private boolean incrementalUpdates = true; // false: every exact seam gets a full DP pass
+    private SeamSearch seamSearch = SeamSearch.EXACT;
+    private int searchBand = DEFAULT_SEARCH_BAND;
+    private int searchWindow = DEFAULT_SEARCH_WINDOW;
+    private int greedyBatch = DEFAULT_GREEDY_BATCH;
+    private int[] previousSeam; // the last seam removed in the current direction
+    private final byte[] greyLevels; // the greyscale of the working image, for restoring snapshots
+    private int pyramidGuideUses;
+    private int seamsDone; // of seamsTotal, for progress
+    private int seamsTotal;
+
+    private static final int TRANSPOSE_BLOCK = 32;
+    private static final double[] ENERGY = new double[1 << 16];
+    static {
+        for (int code = 0; code < ENERGY.length; code++) {
+            int horizontal = code >> 8;
+            int vertical = code & 0xff;
+            ENERGY[code] = Math.sqrt(vertical * vertical + horizontal * horizontal);
+        }
+    }
+    private static final int[] PYRAMID_STEPS = { 0, -1, 1 }; // straight up first, as minVertical does on ties
+    // Rows shorter than twice this many cells are computed on the calling thread, since handing
+    // the halves to the pool would cost more than it saves.
+    public static final int PARALLEL_DP_MIN_SPAN = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 8;
+    public static final int DEFAULT_INTERMITTENT_RUN = 1;
+    public static final double DEFAULT_BATCH_TOLERANCE = 0.1;
+    public static final int DEFAULT_PYRAMID_BAND = 4;
+    public static final int DEFAULT_SEARCH_BAND = 8;
+    public static final int DEFAULT_SEARCH_WINDOW = 64;
+    public static final int DEFAULT_GREEDY_BATCH = 128;
 
     public BasicSeamsCarver(Logger logger, BufferedImage workingImage,
                             int outWidth, int outHeight, RGBWeights rgbWeights) {
         super((s) -> logger.log("Seam carving: " + s), workingImage, rgbWeights, outWidth, outHeight);
-		
-		this.greyscaled = this.greyscale();
-        this.originalImage = this.greyscale();
+
+        int[] greys = this.greyLevels();
+        this.greyLevels = new byte[greys.length];
+        for (int i = 0; i < greys.length; i++) {
+            this.greyLevels[i] = (byte) greys[i];
+        }
 
         this.currWidth = getForEachWidth();
         this.currHeight = getForEachHeight();
-        this.costMatrix = new double[currHeight][currWidth];
-        this.backTrack = new int[currHeight][currWidth];
+        this.stride = this.currWidth;
+        this.setCostMode(CostMode.DOUBLE);
 
         this.numOfHorizontalSeams = workingImage.getWidth() - outWidth;
         this.numOfVerticalSeams = workingImage.getHeight() - outHeight;
 
-        this.horizontalCoordinates = new ArrayList<Coordinate[]>();
-        this.verticalCoordinates = new ArrayList<Coordinate[]>();
-        this.originalCoordinates = new Coordinate[currHeight][currWidth];
+        this.horizontalCoordinates = new ArrayList<int[]>();
+        this.verticalCoordinates = new ArrayList<int[]>();
+        this.originalIndices = new int[currHeight * stride];
 
         this.initMatrices();
     }
 
 	private void initMatrices(){
-		this.carved = new int[this.currHeight][this.currWidth];
-        for(int x = 0; x < currWidth; x++){
-            for(int y = 0; y < currHeight; y++){
-                this.originalCoordinates[y][x] = new Coordinate(x, y);
-				this.carved[y][x] = (new Color(this.greyscaled.getRGB(x,y))).getBlue();
-            }
+		this.carved = new int[this.currHeight * this.stride];
+        for(int i = 0; i < carved.length; i++){
+            this.originalIndices[i] = i;
+            this.carved[i] = this.greyLevels[i] & 0xff;
         }
+
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Energy", this.currHeight, this.currWidth, 0);
+        long start = System.nanoTime();
+        this.energyCodes = new short[this.currHeight * this.stride];
+        int rows = this.rows();
+        int columns = this.columns();
+        forEachRowParallel((y, fromX, toX) -> this.computeEnergyRow(y, rows, columns));
+        this.energyNanosPerCell = (System.nanoTime() - start) / ((double)rows * columns);
+        this.metrics.add(StageMetrics.Stage.ENERGY, System.nanoTime() - start);
+        event.commit();
+    }
+
+    // Selects how the DP stores its costs. Takes effect from the next seam on.
+    public void setCostMode(CostMode costMode) {
+        long maxSeamCost = (long)Math.max(inWidth, inHeight) * FIXED_POINT_MAX_STEP;
+        if (costMode != CostMode.DOUBLE && maxSeamCost * MIN_FIXED_POINT_SCALE >= FIXED_POINT_INFINITY) {
+            throw new IllegalArgumentException("Image is too large for fixed point seam costs");
+        }
+        if (costMode != CostMode.DOUBLE && this.pyramidLevels > 0) {
+            throw new IllegalArgumentException("Pyramid seam search needs double seam costs");
+        }
+
+        // The finest power of two scale at which no seam cost reaches FIXED_POINT_INFINITY: the
+        // rounding of every energy then moves a seam cost by less than the length of the seam / (2 * scale).
+        this.fixedPointScale = MIN_FIXED_POINT_SCALE;
+        while (this.fixedPointScale < MAX_FIXED_POINT_SCALE && maxSeamCost * this.fixedPointScale * 2 < FIXED_POINT_INFINITY) {
+            this.fixedPointScale *= 2;
+        }
+        int cells = this.inWidth * this.inHeight;
+        this.costMode = costMode;
+        this.costsValid = false;
+        this.costMatrix = costMode == CostMode.DOUBLE ? new double[cells] : null;
+        this.backTrack = costMode == CostMode.DOUBLE ? new byte[cells] : null;
+        this.fixedCosts = costMode == CostMode.FIXED_POINT ? new int[cells] : null;
+        this.costLines = costMode == CostMode.FIXED_POINT_ROLLING ? new int[2][Math.max(inWidth, inHeight)] : null;
+        this.packedBackTrack = costMode == CostMode.DOUBLE ? null : new int[(cells + 15) >> 4];
+    }
+
+    public CostMode getCostMode() {
+        return this.costMode;
+    }
+
+    // The cost units per energy unit of the fixed point modes.
+    public int getFixedPointScale() {
+        return this.fixedPointScale;
     }
 
     private BufferedImage reconstructImage(){
-        BufferedImage ans = newEmptyOutputSizedImage();
+        return toImage(this.reconstructPixels());
+    }
 
-        for(int x = 0; x < currWidth; x++){
-            for(int y = 0; y < currHeight; y++){
-                ans.setRGB(x,y,this.workingImage.getRGB(this.originalCoordinates[y][x].X,this.originalCoordinates[y][x].Y));
+    // The working image without the removed seams (currWidth x currHeight).
+    final PixelBuffer reconstructPixels(){
+        this.setTransposed(false);
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Reconstruct", currHeight, currWidth, 0);
+        long start = System.nanoTime();
+        int[] in = workingPixels().pixels;
+        PixelBuffer ans = new PixelBuffer(currWidth, currHeight);
+
+        for(int y = 0; y < currHeight; y++){
+            for(int x = 0; x < currWidth; x++){
+                ans.set(x, y, in[this.originalIndices[y * stride + x]]);
             }
         }
+        this.metrics.add(StageMetrics.Stage.RECONSTRUCT, System.nanoTime() - start);
+        event.commit();
         return ans;
     }
 
+    // Removes seams of one direction only, the way the given scheme would, and returns the original
+    // indices of the pixels of every seam removed so far in that direction.
+    final ArrayList<int[]> findSeams(boolean horizontal, int numOfSeams, CarvingScheme carvingScheme) {
+        SeamCarvingEvent event = this.seamCarvingEvent("Find seams", carvingScheme,
+                horizontal ? 0 : numOfSeams, horizontal ? numOfSeams : 0);
+        this.beginSeams(numOfSeams);
+        if (carvingScheme == CarvingScheme.BATCHED) {
+            removeBatched(horizontal, numOfSeams);
+        } else if (horizontal) {
+            removeHorizontal(numOfSeams);
+        } else {
+            removeVertical(numOfSeams);
+        }
+        event.commit();
+        return horizontal ? this.horizontalCoordinates : this.verticalCoordinates;
+    }
+
     private void removeSeams(int numOfVerticalSeams, int numOfHorizontalSeams, CarvingScheme carvingScheme){
         if (carvingScheme == CarvingScheme.VERTICAL_HORIZONTAL) {
             removeVertical(numOfVerticalSeams);
@@ -101,142 +287,1235 @@ public class BasicSeamsCarver extends ImageProcessor {
             removeHorizontal(numOfHorizontalSeams);
             removeVertical(numOfVerticalSeams);
 
+        }
+        else if (carvingScheme == CarvingScheme.OPTIMAL) {
+            this.removeOptimally(numOfVerticalSeams, numOfHorizontalSeams);
+        }
+        else if (carvingScheme == CarvingScheme.BATCHED) {
+            this.savedDPPasses = 0;
+            removeBatched(false, numOfVerticalSeams);
+            removeBatched(true, numOfHorizontalSeams);
+            logger.log("Batched carving saved " + this.savedDPPasses + " DP passes.");
         }else{
             this.removeIntermittently(numOfVerticalSeams, numOfHorizontalSeams);
         }
     }
 
     private void removeVertical(int numOfVerticalSeams){
+        if (this.seamSearch == SeamSearch.GREEDY) {
+            this.removeBatched(false, numOfVerticalSeams);
+            return;
+        }
         for (int i = 0; i < numOfVerticalSeams; i++) {
             removeMinVerticalSeam();
         }
     }
 
     private void removeHorizontal(int numOfHorizontalSeams){
+        if (this.seamSearch == SeamSearch.GREEDY) {
+            this.removeBatched(true, numOfHorizontalSeams);
+            return;
+        }
         for (int i = 0; i < numOfHorizontalSeams; i++) {
             removeMinHorizontalSeam();
         }
     }
+    // Every change of direction transposes the buffers and takes a full DP pass; longer runs of seams
+    // in one direction, whose DP the incremental repair keeps up to date, save most of them.
     private void removeIntermittently(int numOfVerticalSeams, int numOfHorizontalSeams) {
 
         while(numOfVerticalSeams > 0 || numOfHorizontalSeams > 0){
-            if (numOfVerticalSeams > 0 ) {
-                removeMinVerticalSeam();
-                numOfVerticalSeams--;
+            int run = Math.min(this.intermittentRun, numOfVerticalSeams);
+            removeVertical(run);
+            numOfVerticalSeams -= run;
+
+            run = Math.min(this.intermittentRun, numOfHorizontalSeams);
+            removeHorizontal(run);
+            numOfHorizontalSeams -= run;
+        }
+    }
+
+    // The number of seams INTERMITTENT removes in one direction before it turns to the other. The
+    // default of 1 alternates every seam; longer runs are faster but remove other seams.
+    public void setIntermittentRun(int run) {
+        if (run < 1) {
+            throw new IllegalArgumentException("Intermittent run must be positive");
+        }
+        this.intermittentRun = run;
+    }
+
+    public int getIntermittentRun() {
+        return this.intermittentRun;
+    }
+
+    /*
+     * Finds the order of seams by the transport map T(r, c): the least energy removed by any order
+     * of r horizontal and c vertical seams, T(r, c) = min(T(r - 1, c) + E(horizontal seam of I(r - 1, c)),
+     * T(r, c - 1) + E(vertical seam of I(r, c - 1))), where I(r, c) is the image the best order leaves.
+     * The map is filled row by row. One carver follows the current row, removing vertical seams
+     * incrementally; a second one is restored to the images of the previous row for the horizontal
+     * seams. Only the previous row of images is kept, as snapshots of their original indices: every
+     * optimalCheckpointInterval-th of them, and those whose best order ends with a horizontal seam.
+     * Every image in between is the one before it less a vertical seam, so it is recomputed exactly
+     * from the snapshot before it by vertical seams.
+     * The order found is then replayed on this carver.
+     */
+    private void removeOptimally(int numOfVerticalSeams, int numOfHorizontalSeams) {
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Optimal order", this.inHeight, this.inWidth,
+                numOfVerticalSeams + numOfHorizontalSeams);
+        int columns = numOfVerticalSeams + 1;
+        double[] costs = new double[(numOfHorizontalSeams + 1) * columns];
+        boolean[] fromAbove = new boolean[costs.length];
+
+        BasicSeamsCarver current = this.helperCarver();
+        BasicSeamsCarver above = this.helperCarver();
+        Snapshot[] snapshots = new Snapshot[columns];
+        for (int r = 0; r <= numOfHorizontalSeams; r++) {
+            this.progress("Finding the optimal order", r, numOfHorizontalSeams);
+            Snapshot[] nextSnapshots = new Snapshot[columns];
+            for (int c = 0; c <= numOfVerticalSeams; c++) {
+                int i = r * columns + c;
+                if (r == 0 && c == 0) {
+                    nextSnapshots[0] = current.snapshot();
+                    continue;
+                }
+
+                double left = Double.MAX_VALUE;
+                if (c > 0) {
+                    left = costs[i - 1] + current.minSeamEnergy(false);
+                }
+                double up = Double.MAX_VALUE;
+                if (r > 0) {
+                    above.restore(snapshots, c);
+                    up = costs[i - columns] + above.minSeamEnergy(true);
+                }
+
+                if (up < left) {
+                    above.removeMinHorizontalSeam();
+                    BasicSeamsCarver swap = current;
+                    current = above;
+                    above = swap;
+                    costs[i] = up;
+                    fromAbove[i] = true;
+                } else {
+                    current.removeMinVerticalSeam();
+                    costs[i] = left;
+                }
+                if (fromAbove[i] || c % this.optimalCheckpointInterval == 0) {
+                    nextSnapshots[c] = current.snapshot();
+                }
+            }
+            snapshots = nextSnapshots;
+        }
+        event.commit();
+        logger.log("Optimal order removes " + costs[costs.length - 1] + " energy.");
+
+        boolean[] order = new boolean[numOfVerticalSeams + numOfHorizontalSeams];
+        for (int r = numOfHorizontalSeams, c = numOfVerticalSeams, step = order.length - 1; step >= 0; step--) {
+            order[step] = fromAbove[r * columns + c];
+            if (order[step]) {
+                r--;
+            } else {
+                c--;
             }
+        }
+        for (boolean horizontal : order) {
+            if (horizontal) {
+                this.removeMinHorizontalSeam();
+            } else {
+                this.removeMinVerticalSeam();
+            }
+        }
+    }
+
+    // A carver of the same image and settings, searching exact seams.
+    private BasicSeamsCarver helperCarver() {
+        BasicSeamsCarver helper = new BasicSeamsCarver(s -> {}, this.workingImage, this.outWidth, this.outHeight, this.rgbWeights);
+        helper.setForEachParallelism(this.getForEachParallelism());
+        helper.setCostMode(this.costMode);
+        // Cancellation reaches the transport map; its seams are counted apart from the carve's own.
+        helper.setCancellationToken(this.getCancellationToken());
+        this.shareMetrics(helper);
+        return helper;
+    }
+
+    // Gives another carver every setting of this one, so that it searches and removes its seams the
+    // same way: the cost mode first, which the pyramid depends on.
+    final void copySettingsTo(BasicSeamsCarver next) {
+        next.setForEachParallelism(this.getForEachParallelism());
+        next.setCostMode(this.costMode);
+        next.setPyramid(this.pyramidLevels, this.pyramidBand);
+        next.setIncrementalCosts(this.incrementalUpdates);
+        next.seamSearch = this.seamSearch;
+        next.setSearchBand(this.searchBand);
+        next.setSearchWindow(this.searchWindow);
+        next.setGreedyBatch(this.greedyBatch);
+        next.setIntermittentRun(this.intermittentRun);
+        next.setBatchSize(this.batchSize);
+        next.setBatchTolerance(this.batchTolerance);
+        next.setOptimalCheckpointInterval(this.optimalCheckpointInterval);
+        next.setCarvingCosts(this.carvingCosts);
+    }
+
+    // The energy of the cheapest seam of the given direction, which stays in place.
+    private double minSeamEnergy(boolean horizontal) {
+        this.setTransposed(horizontal);
+        if (!this.costsValid) {
+            this.computeCosts();
+        }
+        int[] seam = this.traceSeam(this.minSeamStart());
+        double energy = 0;
+        for (int y = 0; y < seam.length; y++) {
+            energy += this.energy(y * stride + seam[y]);
+        }
+        return energy;
+    }
+
+    // The current image of a carver, by the original index of every cell. Along a buffer row the
+    // original indices only break their sequence where a seam went through the row, so each row is
+    // kept as runs of consecutive cells: a few ints per row and seam rather than one per pixel.
+    private static final class Snapshot {
+        final int width;
+        final int height;
+        final boolean transposed;
+        final int[] rowStarts; // the runs of buffer row y are runs[rowStarts[y]..rowStarts[y + 1])
+        final int[] runs; // pairs of the original index of the first cell and the number of cells
+
+        Snapshot(int width, int height, boolean transposed, int[] rowStarts, int[] runs) {
+            this.width = width;
+            this.height = height;
+            this.transposed = transposed;
+            this.rowStarts = rowStarts;
+            this.runs = runs;
+        }
+    }
+
+    private Snapshot snapshot() {
+        int rows = this.rows();
+        int columns = this.columns();
+        int step = this.transposed ? this.inWidth : 1; // between the original indices of neighbours in a row
+        int[] rowStarts = new int[rows + 1];
+        int[] runs = new int[4 * rows];
+        int n = 0;
+        for (int y = 0; y < rows; y++) {
+            rowStarts[y] = n;
+            int end = y * stride + columns;
+            for (int i = y * stride; i < end; ) {
+                int first = this.originalIndices[i];
+                int length = 1;
+                while (i + length < end && this.originalIndices[i + length] == first + length * step) {
+                    length++;
+                }
+                if (n + 2 > runs.length) {
+                    runs = Arrays.copyOf(runs, 2 * runs.length);
+                }
+                runs[n++] = first;
+                runs[n++] = length;
+                i += length;
+            }
+        }
+        rowStarts[rows] = n;
+        return new Snapshot(this.currWidth, this.currHeight, this.transposed, rowStarts, Arrays.copyOf(runs, n));
+    }
 
-            if (numOfHorizontalSeams > 0){
-                removeMinHorizontalSeam();
-                numOfHorizontalSeams--;
+    // Restores snapshots[c], or recomputes it from the closest snapshot before it. The images without
+    // a snapshot are the one before them less a vertical seam, so that is the order replayed.
+    private void restore(Snapshot[] snapshots, int c) {
+        int from = c;
+        while (snapshots[from] == null) {
+            from--;
+        }
+        this.restore(snapshots[from]);
+        for (; from < c; from++) {
+            this.removeMinVerticalSeam();
+        }
+    }
+
+    // Rebuilds the pixel state from the snapshot; the grey levels come from the working image and
+    // the energy is computed anew, so it is the same as if this carver had removed those seams.
+    private void restore(Snapshot snapshot) {
+        this.currWidth = snapshot.width;
+        this.currHeight = snapshot.height;
+        this.transposed = snapshot.transposed;
+        this.stride = this.transposed ? this.inHeight : this.inWidth;
+        // The seams removed since the snapshot are gone, along with the ones before it.
+        this.verticalCoordinates.clear();
+        this.horizontalCoordinates.clear();
+
+        int rows = this.rows();
+        int columns = this.columns();
+        int step = this.transposed ? this.inWidth : 1;
+        for (int y = 0; y < rows; y++) {
+            int i = y * stride;
+            for (int r = snapshot.rowStarts[y]; r < snapshot.rowStarts[y + 1]; r += 2) {
+                for (int k = 0; k < snapshot.runs[r + 1]; k++) {
+                    this.originalIndices[i++] = snapshot.runs[r] + k * step;
+                }
+            }
+            for (i = y * stride; i < y * stride + columns; i++) {
+                this.carved[i] = this.greyLevels[this.originalIndices[i]] & 0xff;
             }
         }
+        for (int y = 0; y < rows; y++) {
+            this.computeEnergyRow(y, rows, columns);
+        }
+        this.costsValid = false;
+        this.pyramidGuide = null;
+        this.previousSeam = null;
+    }
+
+    // Keeps only every interval-th image of the previous row of the OPTIMAL transport map, besides
+    // those the best order reaches by a horizontal seam. It gives the same order as 1, replaying
+    // vertical seams instead of keeping their images.
+    public void setOptimalCheckpointInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.optimalCheckpointInterval = interval;
     }
 
     private void removeMinVerticalSeam() {
+        this.getCancellationToken().throwIfCancelled();
+        this.setTransposed(false);
+        this.verticalCoordinates.add(this.removeMinSeam());
+        this.currWidth--;
+        this.seamsDone(1);
+    }
 
-    	this.computeCosts("vertical");
-        double min = Double.MAX_VALUE;
-    	int idx = -1;
-    	for(int x = 0; x < this.currWidth; x++){
-    		if(this.costMatrix[this.currHeight-1][x] < min){
-    			min = costMatrix[currHeight-1][x];
-    			idx = x;
-			}
-		}
+    private void removeMinHorizontalSeam() {
+        this.getCancellationToken().throwIfCancelled();
+        this.setTransposed(true);
+        this.horizontalCoordinates.add(this.removeMinSeam());
+        this.currHeight--;
+        this.seamsDone(1);
+    }
+
+    // Starts the progress count of a carve of numOfSeams seams.
+    private void beginSeams(int numOfSeams) {
+        this.seamsDone = 0;
+        this.seamsTotal = numOfSeams;
+        this.progress("Removing seams", 0, numOfSeams);
+    }
+
+    private void seamsDone(int numOfSeams) {
+        this.seamsDone += numOfSeams;
+        this.progress("Removing seams", Math.min(this.seamsDone, this.seamsTotal), this.seamsTotal);
+    }
+
+    // The number of buffer rows and the length of a buffer row in the current layout.
+    private int rows() {
+        return this.transposed ? this.currWidth : this.currHeight;
+    }
+
+    private int columns() {
+        return this.transposed ? this.currHeight : this.currWidth;
+    }
+
+    // Removes the cheapest vertical seam of the buffers and returns the original indices of its pixels.
+    // The caller shrinks the image dimension.
+    private int[] removeMinSeam() {
+        long start = System.nanoTime();
+        int[] seam;
+        if (this.seamSearch == SeamSearch.GREEDY) {
+            seam = this.greedySeam();
+        } else if (this.seamSearch != SeamSearch.EXACT && this.previousSeam != null) {
+            seam = this.bandSeam(this.searchGuide(), 0, this.seamSearch == SeamSearch.BANDED ? this.searchBand : this.searchWindow / 2);
+            this.costsValid = false;
+        } else if (this.pyramidLevels > 0) {
+            seam = this.pyramidSeam();
+        } else {
+            if (!this.costsValid) {
+                this.computeCosts();
+                start = System.nanoTime();
+            }
+            seam = this.traceSeam(this.minSeamStart());
+        }
+        // The approximate searches are one pass that finds the seam along the way.
+        this.metrics.add(this.seamSearch == SeamSearch.EXACT && this.pyramidLevels == 0
+                ? StageMetrics.Stage.BACKTRACK : StageMetrics.Stage.DP, System.nanoTime() - start);
+        this.previousSeam = seam;
+        return this.removeSeam(seam);
+    }
 
+    // The columns, row by row, of the seam the DP back tracks from column x of the last row.
+    private int[] traceSeam(int x) {
+        int rows = this.rows();
+        int[] seam = new int[rows];
+        for(int y = rows - 1; y >= 0; y--){
+            seam[y] = x;
+            x = x + this.origin(y * stride + x);
+        }
+        return seam;
+    }
+
+    private int[] removeSeam(int[] seam) {
+        int rows = seam.length;
 
-    	Coordinate[] seamToRemove = new Coordinate[this.currHeight];
-    	for(int y = this.currHeight - 1; y >= 0; y--){
-    		seamToRemove[y] = this.originalCoordinates[y][idx];
-    		this.verticalShift(y, idx);
-    		idx = idx + this.backTrack[y][idx];
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Remove seam", rows, this.columns(), 1);
+        long start = System.nanoTime();
+    	int[] seamToRemove = new int[rows];
+    	for(int y = rows - 1; y >= 0; y--){
+    		seamToRemove[y] = this.originalIndices[y * stride + seam[y]];
+    		this.removedEnergy += this.energy(y * stride + seam[y]);
+    		this.shiftRow(y, seam[y]);
 		}
+        long shifted = System.nanoTime();
+        this.metrics.add(StageMetrics.Stage.SHIFT, shifted - start);
 
-    	this.verticalCoordinates.add(seamToRemove);
-    	this.currWidth--;
+        int columns = this.columns() - 1;
+        for(int y = 0; y < rows; y++){
+            for(int x = Math.max(0, seam[y] - 1); x <= Math.min(columns - 1, seam[y]); x++){
+                this.energyCodes[y * stride + x] = this.computeEnergy(y, x, rows, columns);
+            }
+        }
+        this.metrics.add(StageMetrics.Stage.ENERGY, System.nanoTime() - shifted);
+        int[][] gaps = new int[rows][];
+        for (int y = 0; y < rows; y++) {
+            gaps[y] = new int[] { seam[y] };
+        }
+        this.updateCosts(gaps, columns);
+        event.commit();
+        return seamToRemove;
     }
 
-    private void removeMinHorizontalSeam() {
+    private void removeBatched(boolean transposed, int numOfSeams) {
+        ArrayList<int[]> coordinates = transposed ? this.horizontalCoordinates : this.verticalCoordinates;
+        while (numOfSeams > 0) {
+            this.getCancellationToken().throwIfCancelled();
+            this.setTransposed(transposed);
+            int removed = 1;
+            if (this.seamSearch == SeamSearch.GREEDY) {
+                // At most 1/32 of the columns, so the energy the batch follows stays close to the image's.
+                int batch = Math.min(this.greedyBatch, Math.max(1, this.columns() / 32));
+                removed = this.removeGreedySeams(Math.min(numOfSeams, batch), coordinates);
+            } else if (this.incrementalCosts()) {
+                // A single seam only costs a repair of the DP, and repairing around a batch costs more
+                // than repairing around its seams one by one.
+                coordinates.add(this.removeMinSeam());
+            } else {
+                removed = this.removeMinSeams(Math.min(numOfSeams, this.batchSize), coordinates);
+            }
+            if (transposed) {
+                this.currHeight -= removed;
+            } else {
+                this.currWidth -= removed;
+            }
+            numOfSeams -= removed;
+            this.seamsDone(removed);
+        }
+    }
 
-        this.computeCosts("horizontal");
-        double min = Double.MAX_VALUE;
-        int idx = -1;
+    // Takes up to k pixel-disjoint seams out of a single DP pass, cheapest first, and removes them
+    // in one compaction, after which the DP is repaired around all of them at once. A candidate is
+    // only taken while its cost stays within batchTolerance of the cheapest seam's cost; when only
+    // the cheapest one qualifies this is a plain single seam step.
+    // Returns the number of seams removed, whose original indices are added to 'coordinates'.
+    private int removeMinSeams(int k, ArrayList<int[]> coordinates) {
+        if (!this.costsValid) {
+            this.computeCosts();
+        }
 
-        for(int y = 0; y < this.currHeight; y++){
-            if(this.costMatrix[y][this.currWidth-1] < min){
-                min = costMatrix[y][this.currWidth-1];
-                idx = y;
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Remove batch", this.rows(), this.columns(), 0);
+        long start = System.nanoTime();
+        int rows = this.rows();
+        int columns = this.columns();
+        double limit = this.lastRowCost(this.minSeamStart());
+        limit += Math.abs(limit) * this.batchTolerance;
+        ArrayList<Integer> candidates = new ArrayList<Integer>();
+        for (int x = 0; x < columns; x++) {
+            if (this.lastRowCost(x) <= limit) {
+                candidates.add(x);
+            }
+        }
+        // Stable: equal costs keep the leftmost first, as in minSeamStart.
+        candidates.sort(Comparator.comparingDouble(this::lastRowCost));
+
+        ArrayList<int[]> seams = new ArrayList<int[]>();
+        for (int c = 0; c < candidates.size() && seams.size() < k; c++) {
+            int[] seam = this.traceSeam(candidates.get(c));
+            if (!this.claimSeam(seam)) {
+                continue;
+            }
+            seams.add(seam);
+        }
+        for (int[] seam : seams) {
+            for (int y = 0; y < rows; y++) {
+                this.batchCells.clear(y * stride + seam[y]);
             }
         }
 
-        Coordinate[] seamToRemove = new Coordinate[this.currWidth];
-        for(int x = this.currWidth - 1; x >= 0; x--){
-            seamToRemove[x] = this.originalCoordinates[idx][x];
-            this.horizontalShift(idx, x);
-            idx = idx + this.backTrack[idx][x];
+        this.metrics.add(StageMetrics.Stage.BACKTRACK, System.nanoTime() - start);
+        int removed = this.removeClaimedSeams(seams, coordinates);
+        // Without the incremental repair every seam would have taken a pass of its own.
+        this.savedDPPasses += removed - 1;
+        event.seams = removed;
+        event.commit();
+        return removed;
+    }
+
+    // Takes up to k pixel-disjoint greedy seams, started from the cheapest cells of the first row,
+    // and removes them in one compaction. Only the first is the seam greedySeam would take; the
+    // others are followed on the same energy, which saves a shift of every row per seam.
+    // Returns the number of seams removed, whose original indices are added to 'coordinates'.
+    private int removeGreedySeams(int k, ArrayList<int[]> coordinates) {
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Remove greedy batch", this.rows(), this.columns(), 0);
+        long start = System.nanoTime();
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        for (int x = 0; x < this.columns(); x++) {
+            starts.add(x);
         }
-        this.horizontalCoordinates.add(seamToRemove);
-        this.currHeight--;
+        // Stable: equal energies keep the leftmost first, as in greedySeam.
+        starts.sort(Comparator.comparingDouble(this::energy));
+
+        ArrayList<int[]> seams = new ArrayList<int[]>();
+        for (int c = 0; c < starts.size() && seams.size() < k; c++) {
+            int[] seam = this.greedySeam(starts.get(c));
+            if (seam != null && this.claimSeam(seam)) {
+                seams.add(seam);
+            }
+        }
+        for (int[] seam : seams) {
+            for (int y = 0; y < seam.length; y++) {
+                this.batchCells.clear(y * stride + seam[y]);
+            }
+        }
+        this.metrics.add(StageMetrics.Stage.DP, System.nanoTime() - start);
+        this.previousSeam = seams.get(0);
+        int removed = this.removeClaimedSeams(seams, coordinates);
+        event.seams = removed;
+        event.commit();
+        return removed;
     }
 
-	private void verticalShift(int y, int idx) {
-		this.originalCoordinates[y][idx] = null;
-    	for(int x = idx; x < currWidth - 1; x++){
-    		this.originalCoordinates[y][x] = this.originalCoordinates[y][x+1];
-            this.carved[y][x] = carved[y][x+1];
-		}
+    // Removes the pixel-disjoint seams in one compaction and repairs the energy (and the DP, when it
+    // is repaired incrementally) around all of them at once.
+    // Returns the number of seams removed, whose original indices are added to 'coordinates'.
+    private int removeClaimedSeams(ArrayList<int[]> seams, ArrayList<int[]> coordinates) {
+        if (seams.size() == 1) {
+            coordinates.add(this.removeSeam(seams.get(0)));
+            return 1;
+        }
+
+        long start = System.nanoTime();
+        int rows = this.rows();
+        int columns = this.columns();
+
+        // removed[y] holds the columns removed from row y, in increasing order.
+        int[][] removed = new int[rows][seams.size()];
+        for (int s = 0; s < seams.size(); s++) {
+            int[] seam = seams.get(s);
+            int[] seamToRemove = new int[rows];
+            for (int y = 0; y < rows; y++) {
+                removed[y][s] = seam[y];
+                seamToRemove[y] = this.originalIndices[y * stride + seam[y]];
+                this.removedEnergy += this.energy(y * stride + seam[y]);
+            }
+            coordinates.add(seamToRemove);
+        }
+        for (int y = 0; y < rows; y++) {
+            Arrays.sort(removed[y]);
+            this.compactRow(y, removed[y], columns);
+        }
+        long shifted = System.nanoTime();
+        this.metrics.add(StageMetrics.Stage.SHIFT, shifted - start);
+
+        columns -= seams.size();
+        for (int y = 0; y < rows; y++) {
+            for (int ny = Math.max(0, y - 1); ny <= Math.min(rows - 1, y + 1); ny++) {
+                int before = 0; // the columns removed from row y left of r, both lists being sorted
+                for (int r : removed[ny]) {
+                    while (before < removed[y].length && removed[y][before] < r) {
+                        before++;
+                    }
+                    // Where column r of row ny lands in row y once row y is compacted.
+                    int position = r - before;
+                    for (int x = Math.max(0, position - 2); x <= Math.min(columns - 1, position + 1); x++) {
+                        this.energyCodes[y * stride + x] = this.computeEnergy(y, x, rows, columns);
+                    }
+                }
+            }
+        }
+        this.metrics.add(StageMetrics.Stage.ENERGY, System.nanoTime() - shifted);
+
+        // The gaps are where the removed pixels were, in the compacted coordinates of their row.
+        for (int y = 0; y < rows; y++) {
+            for (int j = 0; j < removed[y].length; j++) {
+                removed[y][j] -= j;
+            }
+        }
+        this.updateCosts(removed, columns);
+        return seams.size();
+    }
+
+    /*
+     * An approximation of the cheapest seam, searched coarse to fine. The DP runs in full only on the
+     * coarsest level; on every finer level it only runs in a band of pyramidBand cells on each side
+     * of the seam found one level up. Coarse levels sum the energy only, while the full resolution
+     * band uses the exact cost of minVertical, so a band wider than the image gives the exact seam.
+     * Building the pyramid reads the whole energy map, so the seam of level 1 is kept as a guide for
+     * the next pyramidBand / 2 seams: each removed seam moves the columns by at most one.
+     */
+    private int[] pyramidSeam() {
+        if (this.pyramidGuide == null || this.pyramidGuideUses >= Math.max(1, this.pyramidBand / 2)) {
+            CarvingPhaseEvent event = new CarvingPhaseEvent("Pyramid guide", this.rows(), this.columns(), 1);
+            int levels = this.buildPyramid(this.rows(), this.columns());
+            if (levels == 0) {
+                this.computeCosts();
+                return this.traceSeam(this.minSeamStart());
+            }
+            int[] seam = this.levelSeam(levels, null);
+            for (int l = levels - 1; l >= 1; l--) {
+                seam = this.levelSeam(l, seam);
+            }
+            this.pyramidGuide = seam;
+            this.pyramidGuideUses = 0;
+            event.commit();
+        }
+        this.pyramidGuideUses++;
+        // The full resolution band leaves stale costs around it.
+        this.costsValid = false;
+        return this.bandSeam(this.pyramidGuide, 1, this.pyramidBand);
+    }
+
+    // Fills the block averages of levels 1 to pyramidLevels (fewer when the image gets too small)
+    // and returns the number of levels filled.
+    private int buildPyramid(int rows, int columns) {
+        if (this.levelEnergy == null) {
+            this.levelRows = new int[this.pyramidLevels + 1];
+            this.levelColumns = new int[this.pyramidLevels + 1];
+            this.levelEnergy = new double[this.pyramidLevels + 1][];
+            this.levelCosts = new double[this.pyramidLevels + 1][];
+            this.levelBackTrack = new byte[this.pyramidLevels + 1][];
+        }
+
+        this.levelRows[0] = rows;
+        this.levelColumns[0] = columns;
+        int l = 0;
+        while (l < this.pyramidLevels && this.levelRows[l] >= 4 && this.levelColumns[l] >= 4) {
+            int fineRows = this.levelRows[l];
+            int fineColumns = this.levelColumns[l];
+            double[] level = this.levelEnergy[l];
+            IntToDoubleFunction fine = l == 0 ? this::energy : i -> level[i];
+            int fineStride = l == 0 ? this.stride : fineColumns;
+
+            l++;
+            int coarseRows = (fineRows + 1) >> 1;
+            int coarseColumns = (fineColumns + 1) >> 1;
+            this.levelRows[l] = coarseRows;
+            this.levelColumns[l] = coarseColumns;
+            if (this.levelEnergy[l] == null || this.levelEnergy[l].length < coarseRows * coarseColumns) {
+                this.levelEnergy[l] = new double[coarseRows * coarseColumns];
+                this.levelCosts[l] = new double[coarseRows * coarseColumns];
+                this.levelBackTrack[l] = new byte[coarseRows * coarseColumns];
+            }
+
+            double[] coarse = this.levelEnergy[l];
+            pushForEachParameters();
+            setForEachParameters(coarseColumns, coarseRows);
+            forEachRowParallel((y, fromX, toX) -> {
+                int top = 2 * y * fineStride;
+                int bottom = 2 * y + 1 < fineRows ? top + fineStride : top;
+                // Only the last block of an odd width row is one column wide.
+                int pairs = Math.min(toX, fineColumns >> 1);
+                for (int x = fromX; x < pairs; x++) {
+                    coarse[y * coarseColumns + x] = 0.25 * (fine.applyAsDouble(top + 2 * x) + fine.applyAsDouble(top + 2 * x + 1)
+                            + fine.applyAsDouble(bottom + 2 * x) + fine.applyAsDouble(bottom + 2 * x + 1));
+                }
+                for (int x = Math.max(fromX, pairs); x < toX; x++) {
+                    coarse[y * coarseColumns + x] = 0.5 * (fine.applyAsDouble(top + 2 * x) + fine.applyAsDouble(bottom + 2 * x));
+                }
+            });
+            popForEachParameters();
+        }
+        return l;
+    }
+
+    // The cheapest seam of the energy sums of level l, in the band around the seam of level l + 1,
+    // or over the whole level when there is no coarser seam.
+    private int[] levelSeam(int l, int[] coarser) {
+        int rows = this.levelRows[l];
+        int columns = this.levelColumns[l];
+        double[] energy = this.levelEnergy[l];
+        double[] costs = this.levelCosts[l];
+        byte[] backTrack = this.levelBackTrack[l];
+
+        int from = 0;
+        int to = columns - 1;
+        int aboveFrom = 0;
+        int aboveTo = -1;
+        for (int y = 0; y < rows; y++) {
+            if (coarser != null) {
+                from = Math.max(0, 2 * coarser[y >> 1] - this.pyramidBand);
+                to = Math.min(columns - 1, 2 * coarser[y >> 1] + 1 + this.pyramidBand);
+            }
+            for (int x = from; x <= to; x++) {
+                int i = y * columns + x;
+                double min = y == 0 ? 0 : Double.POSITIVE_INFINITY;
+                int origin = 0;
+                for (int step : PYRAMID_STEPS) {
+                    int above = x + step;
+                    if (above >= aboveFrom && above <= aboveTo && costs[i - columns + step] < min) {
+                        min = costs[i - columns + step];
+                        origin = step;
+                    }
+                }
+                costs[i] = energy[i] + min;
+                backTrack[i] = (byte)origin;
+            }
+            aboveFrom = from;
+            aboveTo = to;
+        }
+
+        int[] seam = new int[rows];
+        int x = from;
+        for (int c = from + 1; c <= to; c++) {
+            if (costs[(rows - 1) * columns + c] < costs[(rows - 1) * columns + x]) {
+                x = c;
+            }
+        }
+        for (int y = rows - 1; y >= 0; y--) {
+            seam[y] = x;
+            x += backTrack[y * columns + x];
+        }
+        return seam;
+    }
+
+    // The cheapest seam of the full resolution DP in a band of 'band' cells on each side of a guide
+    // seam, whose row y >> shift and column x stand for the rows and columns of the block at
+    // (y << shift, x << shift).
+    private int[] bandSeam(int[] guide, int shift, int band) {
+        int rows = this.rows();
+        int columns = this.columns();
+        int from = 0;
+        int to = -1;
+        for (int y = 0; y < rows; y++) {
+            int aboveFrom = from;
+            int aboveTo = to;
+            int center = Math.min(columns - 1, guide[y >> shift] << shift);
+            from = Math.max(0, center - band);
+            to = Math.min(columns - 1, center + (1 << shift) - 1 + band);
+            if (y > 0) {
+                // minVertical reads the row above next to the band: make the cells outside of it unreachable.
+                for (int x = Math.max(0, from - 1); x <= Math.min(columns - 1, to + 1); x++) {
+                    if (x < aboveFrom || x > aboveTo) {
+                        this.costMatrix[(y - 1) * stride + x] = Double.MAX_VALUE / 2;
+                    }
+                }
+            }
+            for (int x = from; x <= to; x++) {
+                this.minVertical(y, x, columns);
+            }
+        }
+
+        int x = from;
+        for (int c = from + 1; c <= to; c++) {
+            if (this.costMatrix[(rows - 1) * stride + c] < this.costMatrix[(rows - 1) * stride + x]) {
+                x = c;
+            }
+        }
+        return this.traceSeam(x);
+    }
+
+    // Seams at full resolution are searched in a pyramid of 'levels' coarser levels (0 turns it off),
+    // refined in a band of 'band' cells on each side of the seam one level up. Needs CostMode.DOUBLE.
+    public void setPyramid(int levels, int band) {
+        if (levels < 0 || band < 0) {
+            throw new IllegalArgumentException("Pyramid levels and band must not be negative");
+        }
+        if (levels > 0 && this.costMode != CostMode.DOUBLE) {
+            throw new IllegalArgumentException("Pyramid seam search needs double seam costs");
+        }
+        this.pyramidLevels = levels;
+        this.pyramidBand = band;
+        this.levelEnergy = null;
+        this.pyramidGuide = null;
+        this.costsValid = false;
+    }
+
+    public int getPyramidLevels() {
+        return this.pyramidLevels;
+    }
+
+    public int getPyramidBand() {
+        return this.pyramidBand;
+    }
+
+    // The guide of an approximate search: the previous seam itself for BANDED, and for WINDOWED the
+    // column of its middle row, on every row.
+    private int[] searchGuide() {
+        if (this.seamSearch == SeamSearch.BANDED) {
+            return this.previousSeam;
+        }
+        int[] guide = new int[this.previousSeam.length];
+        Arrays.fill(guide, this.previousSeam[guide.length / 2]);
+        return guide;
+    }
+
+    // Starts at the cheapest cell of the first row and steps to the cheapest of the (up to) three
+    // cells below, so only a single cell per row is looked at after the first row.
+    private int[] greedySeam() {
+        int x = 0;
+        for (int c = 1; c < this.columns(); c++) {
+            if (this.energy(c) < this.energy(x)) {
+                x = c;
+            }
+        }
+        return this.greedySeam(x);
+    }
+
+    // The greedy seam that starts at column x of the first row, stepping around the cells claimed
+    // by the current batch, or null when it runs into them.
+    private int[] greedySeam(int x) {
+        int rows = this.rows();
+        int columns = this.columns();
+        if (this.batchCells.get(x)) {
+            return null;
+        }
+        int[] seam = new int[rows];
+        seam[0] = x;
+        for (int y = 1; y < rows; y++) {
+            int row = y * stride;
+            int next = -1;
+            for (int c : new int[] { x, x - 1, x + 1 }) {
+                if (c < 0 || c >= columns || this.batchCells.get(row + c)) {
+                    continue;
+                }
+                if (next < 0 || this.energy(row + c) < this.energy(row + next)) {
+                    next = c;
+                }
+            }
+            if (next < 0) {
+                return null;
+            }
+            x = next;
+            seam[y] = x;
+        }
+        return seam;
+    }
+
+    // The number of cells on each side of the previous seam BANDED searches.
+    public void setSearchBand(int band) {
+        if (band < 0) {
+            throw new IllegalArgumentException("Search band must not be negative");
+        }
+        this.searchBand = band;
+    }
+
+    // The number of columns WINDOWED searches.
+    public void setSearchWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Search window must be positive");
+        }
+        this.searchWindow = window;
+    }
+
+    // The number of seams GREEDY takes from a single energy map before it is brought up to date, at
+    // most (narrow images take fewer).
+    public void setGreedyBatch(int batch) {
+        if (batch < 1) {
+            throw new IllegalArgumentException("Greedy batch must be positive");
+        }
+        this.greedyBatch = batch;
+    }
+
+    // The total energy of the pixels removed so far, each taken when its seam was removed.
+    public double getRemovedEnergy() {
+        return this.removedEnergy;
+    }
+
+    // Marks the cells of the seam as taken by the current batch, unless one of them already is.
+    private boolean claimSeam(int[] seam) {
+        for (int y = 0; y < seam.length; y++) {
+            if (this.batchCells.get(y * stride + seam[y])) {
+                for (int t = 0; t < y; t++) {
+                    this.batchCells.clear(t * stride + seam[t]);
+                }
+                return false;
+            }
+            this.batchCells.set(y * stride + seam[y]);
+        }
+        return true;
+    }
+
+    // Drops the given (sorted) columns from row y, moving the cells in between to the left.
+    private void compactRow(int y, int[] columnsToRemove, int columns) {
+        int rowStart = y * stride;
+        for (int j = 0; j < columnsToRemove.length; j++) {
+            int from = rowStart + columnsToRemove[j] + 1;
+            int end = rowStart + (j + 1 < columnsToRemove.length ? columnsToRemove[j + 1] : columns);
+            System.arraycopy(this.originalIndices, from, this.originalIndices, from - j - 1, end - from);
+            System.arraycopy(this.carved, from, this.carved, from - j - 1, end - from);
+            System.arraycopy(this.energyCodes, from, this.energyCodes, from - j - 1, end - from);
+            if (!this.incrementalCosts()) {
+                continue;
+            }
+            if (this.costMode == CostMode.DOUBLE) {
+                System.arraycopy(this.costMatrix, from, this.costMatrix, from - j - 1, end - from);
+                System.arraycopy(this.backTrack, from, this.backTrack, from - j - 1, end - from);
+            } else if (this.costMode == CostMode.FIXED_POINT) {
+                System.arraycopy(this.fixedCosts, from, this.fixedCosts, from - j - 1, end - from);
+                for (int i = from; i < end; i++) {
+                    this.setPackedOrigin(i - j - 1, this.packedOrigin(i));
+                }
+            }
+        }
+    }
+
+    private double lastRowCost(int x) {
+        int i = (this.rows() - 1) * this.stride + x;
+        switch (this.costMode) {
+        case DOUBLE:
+            return this.costMatrix[i];
+        case FIXED_POINT:
+            return this.fixedCosts[i];
+        default:
+            return this.costLines[(this.rows() - 1) & 1][x];
+        }
+    }
+
+    // The number of seams that BATCHED carving removed without a DP pass of their own.
+    public int getSavedDPPasses() {
+        return this.savedDPPasses;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public double getBatchTolerance() {
+        return this.batchTolerance;
+    }
+
+    // The maximal number of seams BATCHED carving takes out of one DP pass.
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    // How much more than the cheapest seam (relative to its cost) another seam of the same batch may cost.
+    public void setBatchTolerance(double batchTolerance) {
+        if (batchTolerance < 0) {
+            throw new IllegalArgumentException("Batch tolerance must not be negative");
+        }
+        this.batchTolerance = batchTolerance;
+    }
+
+    // The column of the cheapest cell on the last row of the DP; the first one wins a tie.
+    private int minSeamStart() {
+        int lastRow = (this.rows() - 1) * this.stride;
+        int columns = this.columns();
+        int idx = -1;
+
+        if (this.costMode == CostMode.DOUBLE) {
+            double min = Double.MAX_VALUE;
+            for (int x = 0; x < columns; x++) {
+                if (this.costMatrix[lastRow + x] < min) {
+                    min = this.costMatrix[lastRow + x];
+                    idx = x;
+                }
+            }
+        } else {
+            int[] costs = this.costMode == CostMode.FIXED_POINT_ROLLING ? this.costLines[(this.rows() - 1) & 1] : this.fixedCosts;
+            int offset = this.costMode == CostMode.FIXED_POINT_ROLLING ? 0 : lastRow;
+            int min = Integer.MAX_VALUE;
+            for (int x = 0; x < columns; x++) {
+                if (costs[offset + x] < min) {
+                    min = costs[offset + x];
+                    idx = x;
+                }
+            }
+        }
+        return idx;
+    }
+
+	private void shiftRow(int y, int idx) {
+        int from = y * stride + idx + 1;
+        int length = this.columns() - 1 - idx;
+        System.arraycopy(this.originalIndices, from, this.originalIndices, from - 1, length);
+        System.arraycopy(this.carved, from, this.carved, from - 1, length);
+        System.arraycopy(this.energyCodes, from, this.energyCodes, from - 1, length);
+        if (!this.incrementalCosts()) {
+            return;
+        }
+        if (this.costMode == CostMode.DOUBLE) {
+            System.arraycopy(this.costMatrix, from, this.costMatrix, from - 1, length);
+            System.arraycopy(this.backTrack, from, this.backTrack, from - 1, length);
+        } else if (this.costMode == CostMode.FIXED_POINT) {
+            System.arraycopy(this.fixedCosts, from, this.fixedCosts, from - 1, length);
+            for (int i = from; i < from + length; i++) {
+                this.setPackedOrigin(i - 1, this.packedOrigin(i));
+            }
+        }
 	}
 
-	private  void horizontalShift(int idx, int x){
-        this.originalCoordinates[idx][x] = null;
-        for(int y = idx; y < currHeight - 1; y++){
-            this.originalCoordinates[y][x] = this.originalCoordinates[y+1][x];
-            this.carved[y][x] = carved[y+1][x];
+    // Switches the buffers between the image layout (vertical seams) and the transposed one
+    // (horizontal seams). The pixel state is transposed block by block; the DP is recomputed.
+    private void setTransposed(boolean transposed) {
+        if (this.transposed == transposed) {
+            return;
+        }
+
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Transpose", this.rows(), this.columns(), 0);
+        long start = System.nanoTime();
+        int rows = this.rows();
+        int columns = this.columns();
+        int newStride = transposed ? this.inHeight : this.inWidth;
+        if (this.intScratch == null) {
+            this.intScratch = new int[this.carved.length];
+            this.shortScratch = new short[this.energyCodes.length];
         }
+
+        int[] swap = this.carved;
+        transpose(swap, this.intScratch, rows, columns, this.stride, newStride);
+        this.carved = this.intScratch;
+        this.intScratch = this.originalIndices;
+        transpose(this.intScratch, swap, rows, columns, this.stride, newStride);
+        this.originalIndices = swap;
+
+        short[] codes = this.energyCodes;
+        transpose(codes, this.shortScratch, rows, columns, this.stride, newStride);
+        this.energyCodes = this.shortScratch;
+        this.shortScratch = codes;
+
+        this.stride = newStride;
+        this.transposed = transposed;
+        this.costsValid = false;
+        this.pyramidGuide = null;
+        this.previousSeam = null;
+        this.metrics.add(StageMetrics.Stage.TRANSPOSE, System.nanoTime() - start);
+        event.commit();
     }
 
+    private static void transpose(int[] from, int[] to, int rows, int columns, int fromStride, int toStride) {
+        for (int y0 = 0; y0 < rows; y0 += TRANSPOSE_BLOCK) {
+            int y1 = Math.min(rows, y0 + TRANSPOSE_BLOCK);
+            for (int x0 = 0; x0 < columns; x0 += TRANSPOSE_BLOCK) {
+                int x1 = Math.min(columns, x0 + TRANSPOSE_BLOCK);
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        to[x * toStride + y] = from[y * fromStride + x];
+                    }
+                }
+            }
+        }
+    }
 
-	private void computeCosts(String direction) {
-        if (direction == "vertical") {
-            for (int y = 0; y < this.currHeight; y++) {
-                for (int x = 0; x < this.currWidth; x++) {
-                    this.minVertical(y, x);
+    private static void transpose(short[] from, short[] to, int rows, int columns, int fromStride, int toStride) {
+        for (int y0 = 0; y0 < rows; y0 += TRANSPOSE_BLOCK) {
+            int y1 = Math.min(rows, y0 + TRANSPOSE_BLOCK);
+            for (int x0 = 0; x0 < columns; x0 += TRANSPOSE_BLOCK) {
+                int x1 = Math.min(columns, x0 + TRANSPOSE_BLOCK);
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        to[x * toStride + y] = from[y * fromStride + x];
+                    }
                 }
             }
-        }else{
-            for (int x = 0; x < this.currWidth; x++){
-                for (int y = 0; y < this.currHeight; y++)  {
-                    this.minHorizontal(y, x);
+        }
+    }
+
+    // Repairs the DP after seams were removed. gaps[y] lists, in increasing order, the columns of row y
+    // where a removed pixel was (in the coordinates after the removal). Only the cells next to a gap
+    // of their own row or of the row above, and those below a cell that changed, are recomputed.
+    private void updateCosts(int[][] gaps, int columns) {
+        if (!this.incrementalCosts()) {
+            // Only the last two rows were kept (or only a band was computed), so the next exact seam
+            // needs a full pass.
+            this.costsValid = false;
+            return;
+        }
+
+        long start = System.nanoTime();
+        // Windows are packed as (from << 32 | to) so that sorting them orders them by 'from'.
+        long[] windows = new long[16];
+        int[] changed = new int[16]; // the changed runs of the previous row, as from, to pairs
+        int changedRuns = 0;
+        for (int y = 0; y < gaps.length; y++) {
+            int count = 0;
+            int needed = 2 * gaps[y].length + (y > 0 ? 2 * gaps[y - 1].length : 0) + changedRuns;
+            if (windows.length < needed) {
+                windows = new long[needed];
+            }
+            for (int g : gaps[y]) {
+                count = addWindow(windows, count, g - 1, g, columns);
+            }
+            if (y > 0) {
+                for (int g : gaps[y - 1]) {
+                    count = addWindow(windows, count, g - 1, g, columns);
                 }
             }
+            for (int r = 0; r < changedRuns; r++) {
+                count = addWindow(windows, count, changed[2 * r] - 1, changed[2 * r + 1] + 1, columns);
+            }
+            Arrays.sort(windows, 0, count);
+
+            changedRuns = 0;
+            int done = -1; // the last column recomputed on this row
+            for (int w = 0; w < count; w++) {
+                int from = Math.max(done + 1, (int) (windows[w] >> 32));
+                int to = (int) windows[w];
+                for (int x = from; x <= to; x++) {
+                    if (!this.recomputeCost(y, x, columns)) {
+                        continue;
+                    }
+                    if (changedRuns > 0 && changed[2 * changedRuns - 1] == x - 1) {
+                        changed[2 * changedRuns - 1] = x;
+                        continue;
+                    }
+                    if (changed.length < 2 * changedRuns + 2) {
+                        changed = Arrays.copyOf(changed, 2 * changed.length);
+                    }
+                    changed[2 * changedRuns] = x;
+                    changed[2 * changedRuns + 1] = x;
+                    changedRuns++;
+                }
+                done = Math.max(done, to);
+            }
+        }
+        this.metrics.add(StageMetrics.Stage.DP, System.nanoTime() - start);
+    }
+
+    private static int addWindow(long[] windows, int count, int from, int to, int columns) {
+        from = Math.max(0, from);
+        to = Math.min(columns - 1, to);
+        if (from > to) {
+            return count;
+        }
+        windows[count] = ((long) from << 32) | to;
+        return count + 1;
+    }
+
+    // Whether the DP is repaired after a seam is removed, rather than computed anew for the next one
+    // (in which case the cost matrices need not follow the removal either).
+    private boolean incrementalCosts() {
+        return this.incrementalUpdates && this.costMode != CostMode.FIXED_POINT_ROLLING && this.pyramidLevels == 0 && this.seamSearch == SeamSearch.EXACT;
+    }
+
+    // Whether the DP is repaired around each removed seam (the default) or computed anew for every
+    // seam. Both find the same seams; the full passes are there to compare against.
+    public void setIncrementalCosts(boolean incremental) {
+        this.incrementalUpdates = incremental;
+        this.costsValid = false;
+    }
+
+    public boolean isIncrementalCosts() {
+        return this.incrementalUpdates;
+    }
+
+    // Recomputes a single DP cell in place and tells whether its cost or step changed.
+    private boolean recomputeCost(int y, int x, int columns) {
+        int i = y * this.stride + x;
+        int oldOrigin = this.origin(i);
+
+        if (this.costMode == CostMode.DOUBLE) {
+            double oldCost = this.costMatrix[i];
+            this.minVertical(y, x, columns);
+            return this.costMatrix[i] != oldCost || this.backTrack[i] != oldOrigin;
+        }
+
+        int oldCost = this.fixedCosts[i];
+        this.fixedCosts[i] = this.fixedCost(y, x, columns, this.fixedCosts, i - this.stride, 1);
+        return this.fixedCosts[i] != oldCost || this.packedOrigin(i) != oldOrigin;
+    }
+
+	private void computeCosts() {
+        long start = System.nanoTime();
+        this.costsValid = true;
+        int rows = this.rows();
+        int columns = this.columns();
+        CarvingPhaseEvent event = new CarvingPhaseEvent("Seam costs", rows, columns, 0);
+        boolean parallel = this.isForEachParallel() && columns >= 2 * PARALLEL_DP_MIN_SPAN;
+
+        // Every row only depends on the row above it, so the cells of a row can be computed
+        // concurrently; the invoke of each row is the barrier before the next one.
+        for (int y = 0; y < rows; y++) {
+            if (parallel) {
+                this.getForEachPool().invoke(new RowSpan(y, 0, columns, columns));
+            } else {
+                this.computeRow(y, 0, columns, columns);
+            }
         }
+        this.metrics.add(StageMetrics.Stage.DP, System.nanoTime() - start);
+        event.commit();
     }
 
-    private void minVertical(int y, int x) {
+    // Computes the DP cells [from, to) of row y.
+    private void computeRow(int y, int from, int to, int columns) {
+        if (this.costMode == CostMode.DOUBLE) {
+            for (int x = from; x < to; x++) {
+                this.minVertical(y, x, columns);
+            }
+        }
+        else if (this.costMode == CostMode.FIXED_POINT) {
+            for (int x = from, i = y * stride + from; x < to; x++, i++) {
+                this.fixedCosts[i] = this.fixedCost(y, x, columns, this.fixedCosts, i - stride, 1);
+            }
+        }
+        else {
+            // Streaming: row y is written to costLines[y & 1] while row y - 1 is read from the other one.
+            int[] current = this.costLines[y & 1];
+            int[] previous = this.costLines[(y + 1) & 1];
+            for (int x = from; x < to; x++) {
+                current[x] = this.fixedCost(y, x, columns, previous, x, 1);
+            }
+        }
+    }
+
+    // A span of a DP row, split in halves down to PARALLEL_DP_MIN_SPAN cells. The split points
+    // fall on multiples of 16 cells so no two spans share a word of packedBackTrack.
+    @SuppressWarnings("serial")
+    private class RowSpan extends RecursiveAction {
+        private final int y, from, to, columns;
+
+        public RowSpan(int y, int from, int to, int columns) {
+            this.y = y;
+            this.from = from;
+            this.to = to;
+            this.columns = columns;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < 2 * PARALLEL_DP_MIN_SPAN) {
+                computeRow(y, from, to, columns);
+                return;
+            }
+
+            int rowStart = y * stride;
+            int mid = ((rowStart + ((from + to) >>> 1)) & ~15) - rowStart;
+            invokeAll(new RowSpan(y, from, mid, columns), new RowSpan(y, mid, to, columns));
+        }
+    }
+
+    private void minVertical(int y, int x, int columns) {
+        int i = y * this.stride + x;
+        int up = i - this.stride;
         int origin = 0;
         int cLeft = 255;
         int cUp = 255;
         int cRight = 255;
 
         if (y > 0) {
-            double tUp = this.costMatrix[y - 1][x];
+            double tUp = this.costMatrix[up];
             double tRight = Double.MAX_VALUE / 2;
             double tLeft = Double.MAX_VALUE / 2;
 
-            if (x > 0 && x < this.currWidth - 1) {
-                cRight = Math.abs(this.carved[y][x - 1] - this.carved[y][x + 1]);
+            if (x > 0 && x < columns - 1) {
+                cRight = Math.abs(this.carved[i - 1] - this.carved[i + 1]);
                 cLeft = cRight;
                 cUp = cRight;
             }
 
             if (x > 0) {
-                cLeft += Math.abs(this.carved[y][x - 1] - this.carved[y - 1][x]);
-                tLeft = this.costMatrix[y - 1][x - 1];
+                cLeft += Math.abs(this.carved[i - 1] - this.carved[up]);
+                tLeft = this.costMatrix[up - 1];
             }
 
-            if (x  < this.currWidth - 1) {
-                cRight += Math.abs(this.carved[y - 1][x] - this.carved[y][x + 1]);
-                tRight = this.costMatrix[y - 1][x + 1];
+            if (x  < columns - 1) {
+                cRight += Math.abs(this.carved[up] - this.carved[i + 1]);
+                tRight = this.costMatrix[up + 1];
             }
 
             double costRight = tRight + cRight;
@@ -245,7 +1524,7 @@ public class BasicSeamsCarver extends ImageProcessor {
 
             double min = 0;
 
-            if (costRight < costUp && costRight < costLeft  && x < this.currWidth - 1) {
+            if (costRight < costUp && costRight < costLeft  && x < columns - 1) {
                 origin = 1;
                 min = costRight;
             }
@@ -257,137 +1536,461 @@ public class BasicSeamsCarver extends ImageProcessor {
                 origin = 0;
             }
 
-            this.costMatrix[y][x] = this.pixelEnergy(y, x) + min;
+            this.costMatrix[i] = this.energy(i) + min;
 
         }else{
-            this.costMatrix[y][x] = this.pixelEnergy(y, x);
+            this.costMatrix[i] = this.energy(i);
         }
 
-        this.backTrack[y][x] = origin;
+        this.backTrack[i] = (byte)origin;
     }
 
-    private void minHorizontal(int y, int x) {
+    // The fixed point twin of minVertical. The costs of the previous row are read from
+    // costs[up], costs[up - upStep] and costs[up + upStep]; the cost of the cell is returned.
+    private int fixedCost(int y, int x, int columns, int[] costs, int up, int upStep) {
+        int i = y * this.stride + x;
+        if (y == 0) {
+            this.setPackedOrigin(i, 0);
+            return this.fixedEnergy(i);
+        }
+
+        int above = i - this.stride;
         int origin = 0;
-        int cBehind = 255;
-        int cOver = 255;
-        int cUnder = 255;
+        int cLeft = 255;
+        int cUp = 255;
+        int cRight = 255;
+
+        int tUp = costs[up];
+        int tRight = FIXED_POINT_INFINITY;
+        int tLeft = FIXED_POINT_INFINITY;
+
+        if (x > 0 && x < columns - 1) {
+            cRight = Math.abs(this.carved[i - 1] - this.carved[i + 1]);
+            cLeft = cRight;
+            cUp = cRight;
+        }
 
         if (x > 0) {
-            double tBehind = this.costMatrix[y][x - 1];
-            double tOver = Double.MAX_VALUE / 2;
-            double tUnder = Double.MAX_VALUE / 2;
+            cLeft += Math.abs(this.carved[i - 1] - this.carved[above]);
+            tLeft = costs[up - upStep];
+        }
 
-            if (y > 0 && y < this.currHeight - 1) {
-                cBehind = Math.abs(this.carved[y-1][x] - this.carved[y + 1][x]);
-                cOver = cBehind;
-                cUnder = cOver;
-            }
+        if (x < columns - 1) {
+            cRight += Math.abs(this.carved[above] - this.carved[i + 1]);
+            tRight = costs[up + upStep];
+        }
 
-            if (y > 0) {
-                cOver += Math.abs(this.carved[y-1][x] - this.carved[y][x-1]);
-                tOver = this.costMatrix[y - 1][x - 1];
-            }
+        int costRight = tRight + cRight * this.fixedPointScale;
+        int costLeft = tLeft + cLeft * this.fixedPointScale;
+        int costUp = tUp + cUp * this.fixedPointScale;
 
-            if (y  < this.currHeight - 1) {
-                cUnder += Math.abs(this.carved[y][x-1] - this.carved[y+1][x]);
-                tUnder = this.costMatrix[y + 1][x - 1];
-            }
+        int min;
 
-            double costBehind = tBehind + cBehind;
-            double costOver = tOver + cOver;
-            double costUnder = tUnder + cUnder;
+        if (costRight < costUp && costRight < costLeft && x < columns - 1) {
+            origin = 1;
+            min = costRight;
+        }
+        else if (costLeft < costUp && costLeft < costRight && x > 0) {
+            origin = - 1;
+            min = costLeft;
+        }else{
+            min = costUp;
+        }
 
-            double min = 0;
+        this.setPackedOrigin(i, origin);
+        return this.fixedEnergy(i) + min;
+    }
 
-            if (costUnder < costBehind && costUnder < costOver  && y < this.currWidth - 1) {
-                origin = 1;
-                min = costUnder;
-            }
-            else if (costOver < costBehind && costOver < costUnder && y > 0) {
-                origin = - 1;
-                min = costOver;
-            }else{
-                min = costBehind;
-                origin = 0;
-            }
+    private int fixedEnergy(int i) {
+        return (int)(this.energy(i) * this.fixedPointScale + 0.5);
+    }
+
+    private double energy(int i) {
+        return ENERGY[this.energyCodes[i] & 0xffff];
+    }
 
-            this.costMatrix[y][x] = this.pixelEnergy(y, x) + min;
+    // The back tracking step (-1, 0 or +1) stored for cell i.
+    private int origin(int i) {
+        return this.costMode == CostMode.DOUBLE ? this.backTrack[i] : this.packedOrigin(i);
+    }
 
-        }else{
-            this.costMatrix[y][x] = this.pixelEnergy(y, x);
-        }
+    // 16 cells per int, 2 bits each, holding origin + 1.
+    private int packedOrigin(int i) {
+        return ((this.packedBackTrack[i >> 4] >>> ((i & 15) << 1)) & 3) - 1;
+    }
 
-        this.backTrack[y][x] = origin;
+    private void setPackedOrigin(int i, int origin) {
+        int shift = (i & 15) << 1;
+        int word = i >> 4;
+        this.packedBackTrack[word] = (this.packedBackTrack[word] & ~(3 << shift)) | ((origin + 1) << shift);
     }
 
+    // The energy of a whole row, on the SIMD kernel up to the last column when it runs.
+    private void computeEnergyRow(int y, int rows, int columns) {
+        int i = y * this.stride;
+        int x = 0;
+        if (Vectors.ENABLED && rows > 1) {
+            int next = y == rows - 1 ? i - this.stride : i + this.stride;
+            x = Vectors.KERNELS.energy(this.carved, i, next, this.energyCodes, columns);
+        }
+        for (; x < columns; x++) {
+            this.energyCodes[i + x] = this.computeEnergy(y, x, rows, columns);
+        }
+    }
 
-    private double pixelEnergy(int y, int x) {
-        int currentColor = carved[y][x];
+    // The energy of a pixel only depends on its right and lower neighbours (left/upper on the
+    // last column/row), so after a seam removal only the two pixels beside the removed one
+    // in each row need computeEnergy again; the rest of the map is shifted along.
+    // The energy is symmetric, so it reads the same in the transposed layout (where dh and dv swap).
+    // Returns the code of the energy, see energyCodes.
+    private short computeEnergy(int y, int x, int rows, int columns) {
+        int i = y * this.stride + x;
+        int currentColor = carved[i];
         int verticalColor = -1;
         int horizontalColor = -1;
 
-        if (y == this.currHeight - 1) {
-            verticalColor = this.carved[y-1][x];
+        if (y == rows - 1) {
+            verticalColor = this.carved[i - stride];
         } else {
-            verticalColor = this.carved[y+1][x];
+            verticalColor = this.carved[i + stride];
         }
 
-        if (x == this.currWidth - 1) {
-            horizontalColor = this.carved[y][x-1];
+        if (x == columns - 1) {
+            horizontalColor = this.carved[i - 1];
         } else {
-            horizontalColor = this.carved[y][x+1];
+            horizontalColor = this.carved[i + 1];
         }
 
-        double horizontal = Math.abs(currentColor - horizontalColor);
-        double vertical = Math.abs(currentColor - verticalColor);
-
-        double energy = Math.sqrt(Math.pow(vertical, 2) + Math.pow(horizontal, 2));
+        int horizontal = Math.abs(currentColor - horizontalColor);
+        int vertical = Math.abs(currentColor - verticalColor);
 
-        return energy;
+        return (short) (horizontal << 8 | vertical);
     }
 
     public BufferedImage carveImage(CarvingScheme carvingScheme) {
         int numVertical = Math.abs(this.outWidth - this.inWidth);
         int numHorizontal = Math.abs(this.outHeight - this.inHeight);
+        SeamCarvingEvent event = this.seamCarvingEvent("Carve", carvingScheme, numVertical, numHorizontal);
+        this.beginSeams(numVertical + numHorizontal);
         this.removeSeams(numVertical,  numHorizontal, carvingScheme);
-        return this.reconstructImage();
+        BufferedImage ans = this.reconstructImage();
+        event.commit();
+        return ans;
+    }
+
+    // A carving event of this carver, begun; the caller commits it.
+    final SeamCarvingEvent seamCarvingEvent(String operation, CarvingScheme carvingScheme, int verticalSeams, int horizontalSeams) {
+        SeamCarvingEvent event = new SeamCarvingEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.scheme = carvingScheme.description;
+            event.costMode = this.costMode.description;
+            event.seamSearch = this.seamSearch.description;
+            event.width = this.inWidth;
+            event.height = this.inHeight;
+            event.outWidth = this.outWidth;
+            event.outHeight = this.outHeight;
+            event.verticalSeams = verticalSeams;
+            event.horizontalSeams = horizontalSeams;
+            event.pixels = (long)this.inWidth * this.inHeight;
+        }
+        event.begin();
+        return event;
+    }
+
+    // Carves with the given seam search for the single seam steps of the scheme (BATCHED and the
+    // order search of OPTIMAL stay exact). BANDED and WINDOWED need CostMode.DOUBLE.
+    public BufferedImage carveImage(CarvingScheme carvingScheme, SeamSearch seamSearch) {
+        if ((seamSearch == SeamSearch.BANDED || seamSearch == SeamSearch.WINDOWED) && this.costMode != CostMode.DOUBLE) {
+            throw new IllegalArgumentException(seamSearch.description + " needs double seam costs");
+        }
+        this.seamSearch = seamSearch;
+        this.previousSeam = null;
+        try {
+            return this.carveImage(carvingScheme);
+        } finally {
+            this.seamSearch = SeamSearch.EXACT;
+        }
+    }
+
+    /*
+     * Carves within a time budget, degrading gracefully. The steps that don't depend on the number
+     * of seams (the first full DP pass, putting the image together and resampling it) are estimated
+     * first, from the costs the carver's CarvingCosts learned (or its energy pass), and left out of
+     * the time for the seams; when there is no time for the first pass, the
+     * image is resampled right away. While the measured rate of the current strategy can not remove
+     * the remaining seams in the time left, it moves on to the next cheaper one, and finally to
+     * bilinear resampling of the carved image to the output size. The strategies are tried from the
+     * best seams down (exact, batched without the incremental DP, banded with CostMode.DOUBLE), but
+     * one measured at no less than the cost of a better one is skipped. Rates are measured per
+     * direction, leaving out the first step after a change of strategy, which may take a full DP
+     * pass. The seams keep the order of the scheme; BATCHED and OPTIMAL go vertical first.
+     */
+    public CarvingReport carveImage(CarvingScheme carvingScheme, long budgetMillis) {
+        // The strategies switch the seam search; a cancelled carve must not leave it switched.
+        SeamSearch seamSearch = this.seamSearch;
+        try {
+            return this.carveWithinBudget(carvingScheme, budgetMillis);
+        } finally {
+            this.seamSearch = seamSearch;
+            this.previousSeam = null;
+        }
+    }
+
+    private CarvingReport carveWithinBudget(CarvingScheme carvingScheme, long budgetMillis) {
+        long start = System.nanoTime();
+        int numVertical = Math.abs(this.outWidth - this.inWidth);
+        int numHorizontal = Math.abs(this.outHeight - this.inHeight);
+        int[] verticalSeams = new int[CarvingReport.Strategy.values().length];
+        int[] horizontalSeams = new int[verticalSeams.length];
+        SeamCarvingEvent event = this.seamCarvingEvent("Carve within " + budgetMillis + " ms", carvingScheme,
+                numVertical, numHorizontal);
+        this.beginSeams(numVertical + numHorizontal);
+
+        double cells = (double)this.currWidth * this.currHeight;
+        double outCells = (double)this.outWidth * this.outHeight;
+        double firstPassNanos = this.estimatedCost(CarvingCosts.Step.FIRST_PASS, 3) * cells;
+        long finishBy = start + budgetMillis * 1_000_000
+                - (long)((this.estimatedCost(CarvingCosts.Step.RECONSTRUCT, 1) + this.estimatedCost(CarvingCosts.Step.RESAMPLE, 3)) * outCells);
+
+        ArrayList<CarvingReport.Strategy> ladder = this.budgetLadder();
+        if (finishBy - System.nanoTime() < firstPassNanos) {
+            ladder.clear();
+            // Nothing measures the first pass until it runs again, so a cost learned from a slow
+            // one (the JIT, a GC) fades for it to be tried again.
+            this.carvingCosts.forgetStep(CarvingCosts.Step.FIRST_PASS, 0.8);
+        }
+        CarvingReport.Strategy strategy = ladder.isEmpty() ? CarvingReport.Strategy.RESAMPLED : ladder.remove(0);
+        if (strategy == CarvingReport.Strategy.RESAMPLED && numVertical + numHorizontal > 0) {
+            logger.log("No time for seams, resampling.");
+        }
+        // The rates of the current strategy per direction (vertical, horizontal), 0 until measured.
+        // They average all the steps measured, as the steps that start a run of seams take longer.
+        double[] nanosPerSeam = new double[2];
+        long[] measuredNanos = new long[2];
+        int[] measuredSeams = new int[2];
+        boolean[] warm = new boolean[2];
+        boolean firstStep = true;
+        boolean cheapest = false; // whether no strategy on the ladder is cheaper than the current one
+        boolean horizontal = carvingScheme == CarvingScheme.HORIZONTAL_VERTICAL;
+        int run = 0; // the seams removed in this direction since the last change
+        while (numVertical + numHorizontal > 0 && strategy != CarvingReport.Strategy.RESAMPLED) {
+            boolean next = this.nextIsHorizontal(carvingScheme, numVertical, numHorizontal, horizontal, run);
+            run = next == horizontal ? run : 0;
+            horizontal = next;
+            int d = horizontal ? 1 : 0;
+
+            long left = finishBy - System.nanoTime();
+            while (strategy != CarvingReport.Strategy.RESAMPLED
+                    && (left <= 0 || this.estimateNanos(nanosPerSeam, numVertical, numHorizontal) > left)) {
+                if (!cheapest) {
+                    double rate = this.estimateNanos(nanosPerSeam, 1, 0);
+                    if (rate > 0) {
+                        this.carvingCosts.learnSeam(strategy, rate / ((double)this.currWidth * this.currHeight));
+                    }
+                    // Only a strategy that is cheaper than the one that ran out of time is any help.
+                    double cost = this.carvingCosts.seam(strategy);
+                    while (!ladder.isEmpty() && cost > 0 && this.carvingCosts.seam(ladder.get(0)) >= cost) {
+                        ladder.remove(0);
+                    }
+                    cheapest = ladder.isEmpty();
+                }
+                if (cheapest) {
+                    // Nothing cheaper: carve on while a seam fits, and resample the rest.
+                    if (left > 0 && this.estimateNanos(nanosPerSeam, 1 - d, d) < left) {
+                        break;
+                    }
+                    strategy = CarvingReport.Strategy.RESAMPLED;
+                } else {
+                    strategy = ladder.remove(0);
+                    nanosPerSeam = new double[2];
+                    measuredNanos = new long[2];
+                    measuredSeams = new int[2];
+                    warm = new boolean[2];
+                }
+                logger.log("Falling back to " + strategy.description.toLowerCase() + ".");
+            }
+            if (strategy == CarvingReport.Strategy.RESAMPLED) {
+                break;
+            }
+
+            long stepStart = System.nanoTime();
+            int limit = horizontal ? numHorizontal : numVertical;
+            if (carvingScheme == CarvingScheme.INTERMITTENT && numVertical > 0 && numHorizontal > 0) {
+                limit = Math.min(limit, this.intermittentRun - run); // a batch ends with the run
+            }
+            double stepCells = (double)this.currWidth * this.currHeight;
+            int removed = this.removeSeams(horizontal, strategy, limit);
+            run += removed;
+            if (horizontal) {
+                numHorizontal -= removed;
+                horizontalSeams[strategy.ordinal()] += removed;
+            } else {
+                numVertical -= removed;
+                verticalSeams[strategy.ordinal()] += removed;
+            }
+            long stepNanos = System.nanoTime() - stepStart;
+            if (firstStep) {
+                this.carvingCosts.learnStep(CarvingCosts.Step.FIRST_PASS, stepNanos / stepCells);
+                firstStep = false;
+            }
+            if (warm[d]) {
+                measuredNanos[d] += stepNanos;
+                measuredSeams[d] += removed;
+                nanosPerSeam[d] = (double)measuredNanos[d] / measuredSeams[d];
+            }
+            warm[d] = true;
+        }
+        if (strategy != CarvingReport.Strategy.RESAMPLED && nanosPerSeam[0] + nanosPerSeam[1] > 0) {
+            this.carvingCosts.learnSeam(strategy, this.estimateNanos(nanosPerSeam, 1, 0) / ((double)this.currWidth * this.currHeight));
+        }
+
+        long reconstructStart = System.nanoTime();
+        BufferedImage image = this.reconstructImage();
+        this.carvingCosts.learnStep(CarvingCosts.Step.RECONSTRUCT, (System.nanoTime() - reconstructStart) / ((double)this.currWidth * this.currHeight));
+        if (numVertical + numHorizontal > 0) {
+            verticalSeams[CarvingReport.Strategy.RESAMPLED.ordinal()] = numVertical;
+            horizontalSeams[CarvingReport.Strategy.RESAMPLED.ordinal()] = numHorizontal;
+            long resampleStart = System.nanoTime();
+            ImageProcessor resampler = new ImageProcessor(logger, image, rgbWeights, outWidth, outHeight);
+            this.shareInstrumentation(resampler);
+            image = resampler.bilinear();
+            this.carvingCosts.learnStep(CarvingCosts.Step.RESAMPLE, (System.nanoTime() - resampleStart) / outCells);
+        }
+        CarvingReport report = new CarvingReport(image, (System.nanoTime() - start) / 1_000_000,
+                verticalSeams, horizontalSeams);
+        event.commit();
+        logger.log(report);
+        return report;
+    }
+
+    // The seam strategies of carveImage within a budget, best seams first, leaving out those that
+    // were measured at no less than the cost of a better one.
+    private ArrayList<CarvingReport.Strategy> budgetLadder() {
+        ArrayList<CarvingReport.Strategy> ans = new ArrayList<CarvingReport.Strategy>();
+        ans.add(CarvingReport.Strategy.EXACT);
+        if (!this.incrementalCosts()) {
+            // With the incremental DP a batch is removed seam by seam, as EXACT does.
+            ans.add(CarvingReport.Strategy.BATCHED);
+        }
+        if (this.costMode == CostMode.DOUBLE) {
+            ans.add(CarvingReport.Strategy.BANDED);
+        }
+        for (int i = 1; i < ans.size(); ) {
+            double cost = this.carvingCosts.seam(ans.get(i));
+            double better = this.carvingCosts.seam(ans.get(i - 1));
+            if (cost > 0 && better > 0 && cost >= better) {
+                ans.remove(i);
+            } else {
+                i++;
+            }
+        }
+        return ans;
+    }
+
+    // The learned cost of a step, or until there is one, the given multiple of the cost of the
+    // energy pass of this carver.
+    private double estimatedCost(CarvingCosts.Step step, double energyPasses) {
+        double ans = this.carvingCosts.step(step);
+        return ans > 0 ? ans : energyPasses * this.energyNanosPerCell;
+    }
+
+    // The costs carveImage within a budget learns and estimates from. A new carver starts with none;
+    // carvers on the same machine can share them.
+    public void setCarvingCosts(CarvingCosts carvingCosts) {
+        if (carvingCosts == null) {
+            throw new NullPointerException("Carving costs must not be null");
+        }
+        this.carvingCosts = carvingCosts;
+    }
+
+    public CarvingCosts getCarvingCosts() {
+        return this.carvingCosts;
+    }
+
+    // The time the remaining seams take at the measured rates, a direction not measured yet taking the rate of the other.
+    private double estimateNanos(double[] nanosPerSeam, int numVertical, int numHorizontal) {
+        double vertical = nanosPerSeam[0] > 0 ? nanosPerSeam[0] : nanosPerSeam[1];
+        double horizontal = nanosPerSeam[1] > 0 ? nanosPerSeam[1] : nanosPerSeam[0];
+        return vertical * numVertical + horizontal * numHorizontal;
+    }
+
+    // Whether the next seam is a horizontal one in the order of the scheme, after 'run' seams in the
+    // direction of the last one.
+    private boolean nextIsHorizontal(CarvingScheme carvingScheme, int numVertical, int numHorizontal,
+            boolean lastHorizontal, int run) {
+        if (numVertical == 0 || numHorizontal == 0) {
+            return numVertical == 0;
+        }
+        if (carvingScheme == CarvingScheme.INTERMITTENT) {
+            if (run == 0) {
+                return false; // vertical seams first
+            }
+            return run < this.intermittentRun ? lastHorizontal : !lastHorizontal;
+        }
+        return carvingScheme == CarvingScheme.HORIZONTAL_VERTICAL;
+    }
+
+    // Removes one seam, or a batch of up to batchSize of them, of the given direction with the given
+    // strategy, and returns how many were removed.
+    private int removeSeams(boolean horizontal, CarvingReport.Strategy strategy, int numOfSeams) {
+        if (strategy == CarvingReport.Strategy.BATCHED) {
+            int batch = Math.min(numOfSeams, this.batchSize);
+            this.removeBatched(horizontal, batch);
+            return batch;
+        }
+
+        SeamSearch search = strategy == CarvingReport.Strategy.BANDED ? SeamSearch.BANDED : SeamSearch.EXACT;
+        if (search != this.seamSearch) {
+            this.seamSearch = search;
+            this.previousSeam = null;
+        }
+        if (horizontal) {
+            this.removeMinHorizontalSeam();
+        } else {
+            this.removeMinVerticalSeam();
+        }
+        return 1;
     }
 
     public BufferedImage showSeams(boolean showVerticalSeams, int seamColorRGB) {
         int numVertical = Math.abs(this.outWidth - this.inWidth);
         int numHorizontal = Math.abs(this.outHeight - this.inHeight);
         BufferedImage shownSeamImage;
+        SeamCarvingEvent event = this.seamCarvingEvent("Show seams", showVerticalSeams
+                ? CarvingScheme.VERTICAL_HORIZONTAL : CarvingScheme.HORIZONTAL_VERTICAL,
+                showVerticalSeams ? numVertical : 0, showVerticalSeams ? 0 : numHorizontal);
+        this.beginSeams(showVerticalSeams ? numVertical : numHorizontal);
         if (showVerticalSeams){
             shownSeamImage = this.showVerticalSeams(numVertical, seamColorRGB);
         }else{
             shownSeamImage = this.showHorizontalSeams(numHorizontal, seamColorRGB);
         }
+        event.commit();
         return shownSeamImage;
 
     }
 
     private BufferedImage showHorizontalSeams(int numOfHorizontalSeams, int seamColorRGB) {
         removeHorizontal(numOfHorizontalSeams);
-        BufferedImage outputImage = this.duplicateWorkingImage();
-
-        for (Coordinate[] seam : this.horizontalCoordinates){
-            for(int i = 0; i < seam.length; i++){
-                outputImage.setRGB(seam[i].X, seam[i].Y,seamColorRGB);
-            }
-        }
-
-        return outputImage;
+        return this.paintSeams(this.horizontalCoordinates, seamColorRGB);
     }
 
     private BufferedImage showVerticalSeams(int numOfVerticalSeams, int seamColorRGB) {
         removeVertical(numOfVerticalSeams);
-        BufferedImage outputImage = this.duplicateWorkingImage();
+        return this.paintSeams(this.verticalCoordinates, seamColorRGB);
+    }
+
+    private BufferedImage paintSeams(ArrayList<int[]> seams, int seamColorRGB) {
+        int[] in = workingPixels().pixels;
+        PixelBuffer outputImage = newInputSizedBuffer();
+        System.arraycopy(in, 0, outputImage.pixels, 0, in.length);
 
-        for (Coordinate[] seam : this.verticalCoordinates){
+        for (int[] seam : seams){
             for(int i = 0; i < seam.length; i++){
-                outputImage.setRGB(seam[i].X, seam[i].Y,seamColorRGB);
+                outputImage.pixels[seam[i]] = seamColorRGB;
             }
         }
-        return outputImage;
+        return toImage(outputImage);
     }
 }
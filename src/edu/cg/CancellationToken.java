@@ -0,0 +1,24 @@
+package edu.cg;
+
+import java.util.concurrent.CancellationException;
+
+/*
+ * A flag another thread raises to stop an operation. Operations check it between units of work
+ * (seams, output columns) and give up by throwing a CancellationException.
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+	
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public void throwIfCancelled() {
+		if(cancelled)
+			throw new CancellationException("Operation cancelled.");
+	}
+}
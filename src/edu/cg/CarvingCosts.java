@@ -0,0 +1,52 @@
+package edu.cg;
+
+import java.util.Arrays;
+
+/*
+ * What the steps of a carve within a time budget cost, in nanoseconds per cell of the image (of the
+ * output for putting it together and resampling it), learned from the budgeted carves that used
+ * it, 0 until measured. Every carver has its own; carvers that run side by side on one machine,
+ * such as those of a resizing service, can share one, so that a carve starts from what the earlier
+ * ones measured. The methods are synchronized, so the carvers may run on different threads.
+ */
+public class CarvingCosts {
+	// The steps that don't depend on the number of seams.
+	public static enum Step {
+		FIRST_PASS,
+		RECONSTRUCT,
+		RESAMPLE
+	}
+
+	private final double[] seams = new double[CarvingReport.Strategy.values().length];
+	private final double[] steps = new double[Step.values().length];
+
+	public synchronized double seam(CarvingReport.Strategy strategy) {
+		return seams[strategy.ordinal()];
+	}
+
+	public synchronized double step(Step step) {
+		return steps[step.ordinal()];
+	}
+
+	synchronized void learnSeam(CarvingReport.Strategy strategy, double nanosPerCell) {
+		seams[strategy.ordinal()] = learn(seams[strategy.ordinal()], nanosPerCell);
+	}
+
+	synchronized void learnStep(Step step, double nanosPerCell) {
+		steps[step.ordinal()] = learn(steps[step.ordinal()], nanosPerCell);
+	}
+
+	//Lowers a learned cost, for a step that only runs again once it is estimated to fit.
+	synchronized void forgetStep(Step step, double factor) {
+		steps[step.ordinal()] *= factor;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(seams, 0);
+		Arrays.fill(steps, 0);
+	}
+
+	private static double learn(double learned, double measured) {
+		return learned == 0 ? measured : 0.5 * learned + 0.5 * measured;
+	}
+}
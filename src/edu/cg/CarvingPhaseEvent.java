@@ -0,0 +1,46 @@
+package edu.cg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * A Flight Recorder event per phase of a carve: a full DP pass, the removal of a seam or a batch
+ * of them, a transposition, the reconstruction and so on. Rows and columns are those of the
+ * carver's buffers, which hold the transposed image while horizontal seams are removed.
+ */
+@Name("edu.cg.CarvingPhase")
+@Label("Carving Phase")
+@Category({ "Image Processing", "Seam Carving" })
+@Description("A phase of a carve")
+final class CarvingPhaseEvent extends Event {
+	@Label("Phase")
+	String phase;
+	
+	@Label("Rows")
+	int rows;
+	
+	@Label("Columns")
+	int columns;
+	
+	@Label("Seams")
+	int seams;
+	
+	@Label("Pixels")
+	@Description("Cells the phase covers")
+	long pixels;
+	
+	CarvingPhaseEvent(String phase, int rows, int columns, int seams) {
+		//Nothing to record when recording is off.
+		if(!isEnabled())
+			return;
+		this.phase = phase;
+		this.rows = rows;
+		this.columns = columns;
+		this.seams = seams;
+		this.pixels = (long)rows * columns;
+		begin();
+	}
+}
@@ -0,0 +1,55 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * The outcome of a carve within a time budget: the image, and how many seams of each direction
+ * every strategy took care of.
+ */
+public class CarvingReport {
+	// The strategies, from the best seams to the worst. A carve within a budget skips those that
+	// were measured at no less than the cost of a better one.
+	public static enum Strategy {
+		EXACT("Exact seams"),
+		BATCHED("Batched seams"),
+		BANDED("Banded seams"),
+		RESAMPLED("Bilinear resampling");
+
+		public final String description;
+
+		private Strategy(String description) {
+			this.description = description;
+		}
+	}
+
+	public final BufferedImage image;
+	public final long elapsedMillis;
+	private final int[] verticalSeams;
+	private final int[] horizontalSeams;
+
+	CarvingReport(BufferedImage image, long elapsedMillis, int[] verticalSeams, int[] horizontalSeams) {
+		this.image = image;
+		this.elapsedMillis = elapsedMillis;
+		this.verticalSeams = verticalSeams.clone();
+		this.horizontalSeams = horizontalSeams.clone();
+	}
+
+	public int verticalSeams(Strategy strategy) {
+		return verticalSeams[strategy.ordinal()];
+	}
+
+	public int horizontalSeams(Strategy strategy) {
+		return horizontalSeams[strategy.ordinal()];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder ans = new StringBuilder("Carved in " + elapsedMillis + " ms:");
+		for (Strategy strategy : Strategy.values()) {
+			if (verticalSeams(strategy) + horizontalSeams(strategy) > 0)
+				ans.append(" ").append(strategy.description).append(" ").append(verticalSeams(strategy))
+						.append(" vertical, ").append(horizontalSeams(strategy)).append(" horizontal;");
+		}
+		return ans.toString();
+	}
+}
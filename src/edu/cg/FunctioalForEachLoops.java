@@ -2,24 +2,47 @@ package edu.cg;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 public class FunctioalForEachLoops {
+	//Roughly the number of pixels a parallel task visits - a few L2 caches worth of packed ints.
+	public static final int TILE_PIXELS = 1 << 16;
+	
+	private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+	
+	//A visit of the pixel (x, y). Takes primitives so the loops never box coordinates.
+	@FunctionalInterface
+	public static interface PixelConsumer {
+		public void accept(int y, int x);
+	}
+	
+	//A visit of the pixels [fromX, toX) of the scanline y.
+	@FunctionalInterface
+	public static interface RowConsumer {
+		public void accept(int y, int fromX, int toX);
+	}
+	
 	private int width;
 	private int height;
+	private int parallelism;
 	
 	private class Params {
-		public final int width, height;
+		public final int width, height, parallelism;
 		
 		public Params() {
 			width = getForEachWidth();
 			height = getForEachHeight();
+			parallelism = getForEachParallelism();
 		}
 		
 		public void restoreParams() {
 			setForEachWidth(width);
 			setForEachHeight(height);
+			setForEachParallelism(parallelism);
 		}
 	}
 	
@@ -27,6 +50,7 @@ public class FunctioalForEachLoops {
 	
 	public FunctioalForEachLoops() {
 		width = height = 0;
+		parallelism = ForkJoinPool.getCommonPoolParallelism();
 		stack = new ArrayDeque<>();
 	}
 	
@@ -51,6 +75,27 @@ public class FunctioalForEachLoops {
 		return height;
 	}
 	
+	/*
+	 * The number of threads forEachParallel may use. A value of 1 makes it run sequentially.
+	 */
+	public final void setForEachParallelism(int parallelism) {
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Parallelism level must be positive");
+		this.parallelism = parallelism;
+	}
+	
+	public final int getForEachParallelism() {
+		return parallelism;
+	}
+	
+	public final void setForEachSequential() {
+		setForEachParallelism(1);
+	}
+	
+	public final boolean isForEachParallel() {
+		return parallelism > 1;
+	}
+	
 	public final void pushForEachParameters() {
 		stack.push(new Params());
 	}
@@ -59,21 +104,89 @@ public class FunctioalForEachLoops {
 		stack.pop().restoreParams();
 	}
 	
-	public final void forEach(BiConsumer<Integer, Integer> action) {
-		forEachHeight(y ->
-			forEachWidth(x ->
-				action.accept(y, x)
-			)
-		);
+	public final void forEach(PixelConsumer action) {
+		for(int y = 0; y < height; ++y)
+			for(int x = 0; x < width; ++x)
+				action.accept(y, x);
+	}
+	
+	public final void forEachRow(RowConsumer action) {
+		for(int y = 0; y < height; ++y)
+			action.accept(y, 0, width);
 	}
 	
-	public final void forEachWidth(Consumer<Integer> action) {
+	/*
+	 * Same as forEach, but the height is split into row bands of about TILE_PIXELS pixels
+	 * which are visited concurrently on a fork-join pool. The action must only write
+	 * to locations owned by its own (y, x).
+	 */
+	public final void forEachParallel(PixelConsumer action) {
+		forEachRowParallel((y, fromX, toX) -> {
+			for(int x = fromX; x < toX; ++x)
+				action.accept(y, x);
+		});
+	}
+	
+	public final void forEachRowParallel(RowConsumer action) {
+		int width = this.width;
+		int height = this.height;
+		int bandHeight = Math.max(1, TILE_PIXELS / Math.max(1, width));
+		
+		if(!isForEachParallel() || bandHeight >= height) {
+			forEachRow(action);
+			return;
+		}
+		
+		pool(parallelism).invoke(new RowBands(action, width, 0, height, bandHeight));
+	}
+	
+	public final void forEachWidth(IntConsumer action) {
 		for(int x = 0; x < width; ++x)
 			action.accept(x);
 	}
 	
-	public final void forEachHeight(Consumer<Integer> action) {
+	public final void forEachHeight(IntConsumer action) {
 		for(int y = 0; y < height; ++y)
 			action.accept(y);
 	}
+	
+	/*
+	 * The fork-join pool the parallel loops run on with the current parallelism level.
+	 */
+	public final ForkJoinPool getForEachPool() {
+		return pool(parallelism);
+	}
+	
+	private static ForkJoinPool pool(int parallelism) {
+		if(parallelism == ForkJoinPool.getCommonPoolParallelism())
+			return ForkJoinPool.commonPool();
+		return pools.computeIfAbsent(parallelism, ForkJoinPool::new);
+	}
+	
+	@SuppressWarnings("serial")
+	private static class RowBands extends RecursiveAction {
+		private final RowConsumer action;
+		private final int width, fromY, toY, bandHeight;
+		
+		public RowBands(RowConsumer action, int width, int fromY, int toY, int bandHeight) {
+			this.action = action;
+			this.width = width;
+			this.fromY = fromY;
+			this.toY = toY;
+			this.bandHeight = bandHeight;
+		}
+		
+		@Override
+		protected void compute() {
+			if(toY - fromY <= bandHeight) {
+				for(int y = fromY; y < toY; ++y)
+					action.accept(y, 0, width);
+				return;
+			}
+			
+			int midY = (fromY + toY) >>> 1;
+			invokeAll(new RowBands(action, width, fromY, midY, bandHeight),
+					new RowBands(action, width, midY, toY, bandHeight));
+		}
+	}
 }
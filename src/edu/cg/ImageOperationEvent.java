@@ -0,0 +1,49 @@
+package edu.cg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * A Flight Recorder event per ImageProcessor operation. When recording is off it is only the
+ * isEnabled() check of the constructor; commit() then does nothing.
+ */
+@Name("edu.cg.ImageOperation")
+@Label("Image Operation")
+@Category("Image Processing")
+@Description("An image processing operation: hue change, greyscale, gradient magnitude or resampling")
+final class ImageOperationEvent extends Event {
+	@Label("Operation")
+	String operation;
+	
+	@Label("Input Width")
+	int inWidth;
+	
+	@Label("Input Height")
+	int inHeight;
+	
+	@Label("Output Width")
+	int outWidth;
+	
+	@Label("Output Height")
+	int outHeight;
+	
+	@Label("Pixels")
+	@Description("Pixels written")
+	long pixels;
+	
+	ImageOperationEvent(String operation, int inWidth, int inHeight, int outWidth, int outHeight) {
+		//Nothing to record when recording is off.
+		if(!isEnabled())
+			return;
+		this.operation = operation;
+		this.inWidth = inWidth;
+		this.inHeight = inHeight;
+		this.outWidth = outWidth;
+		this.outHeight = outHeight;
+		this.pixels = (long)outWidth * outHeight;
+		begin();
+	}
+}
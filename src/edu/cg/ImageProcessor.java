@@ -1,8 +1,10 @@
 package edu.cg;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.rmi.UnexpectedException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ImageProcessor extends FunctioalForEachLoops {
 	
@@ -15,6 +17,16 @@ public class ImageProcessor extends FunctioalForEachLoops {
 	public final int workingImageType;
 	public final int outWidth;
 	public final int outHeight;
+	private PixelBuffer workingPixels;
+	private static final ThreadLocal<int[]> scratchRows = ThreadLocal.withInitial(() -> new int[0]);
+	private static final AtomicReference<SoftReference<int[]>> intermediates = new AtomicReference<>();
+	//Mipmapped bilinear downscales by at least this factor along an axis halve that axis first.
+	private static final int MIPMAP_FACTOR = 2;
+	private static final int MAX_MIPMAP_SHIFT = 4;
+	private ProgressListener progressListener = ProgressListener.NONE;
+	private CancellationToken cancellationToken = new CancellationToken();
+	StageMetrics metrics = new StageMetrics();
+	private int lastPercent;
 	
 	//MARK: Constructors
 	public ImageProcessor(Logger logger, BufferedImage workingImage,
@@ -42,206 +54,573 @@ public class ImageProcessor extends FunctioalForEachLoops {
 	//MARK: Change picture hue - example
 	public BufferedImage changeHue() {
 		logger.log("Preparing for hue changing...");
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent("Change hue", inWidth, inHeight, inWidth, inHeight);
+		long start = System.nanoTime();
 		
-		int r = rgbWeights.redWeight;
-		int g = rgbWeights.greenWeight;
-		int b = rgbWeights.blueWeight;
-		int max = rgbWeights.maxWeight;
+		//The hue changed channels, by value, cached on the weights.
+		int[][] tables = rgbWeights.hueTables();
+		int[] redTable = tables[0];
+		int[] greenTable = tables[1];
+		int[] blueTable = tables[2];
 		
-		BufferedImage ans = newEmptyInputSizedImage();
+		int[] in = workingPixels().pixels;
+		PixelBuffer ans = newInputSizedBuffer();
+		int[] out = ans.pixels;
+		int width = inWidth;
 		
-		forEach((y, x) -> {
-			Color c = new Color(workingImage.getRGB(x, y));
-			int red = r*c.getRed() / max;
-			int green = g*c.getGreen() / max;
-			int blue = b*c.getBlue() / max;
-			Color color = new Color(red, green, blue);
-			ans.setRGB(x, y, color.getRGB());
+		forEachRowParallel((y, fromX, toX) -> {
+			int i = y*width + fromX;
+			int end = y*width + toX;
+			if (Vectors.ENABLED)
+				i = Vectors.KERNELS.changeHue(in, out, i, end, rgbWeights);
+			for (; i < end; i++) {
+				int c = in[i];
+				out[i] = 0xff000000 | redTable[(c >> 16) & 0xff] | greenTable[(c >> 8) & 0xff] | blueTable[c & 0xff];
+			}
 		});
 		
+		metrics.add(StageMetrics.Stage.HUE, System.nanoTime() - start);
+		event.commit();
 		logger.log("Changing hue done!");
 		
-		return ans;
+		return toImage(ans);
 	}
 	
 	//MARK: Nearest neighbor - example
 	public BufferedImage nearestNeighbor() {
 		logger.log("Applying nearest neighbor interpolation...");
-		BufferedImage ans = newEmptyOutputSizedImage();
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent("Nearest neighbor", inWidth, inHeight, outWidth, outHeight);
+		long start = System.nanoTime();
+		PixelBuffer ans = newOutputSizedBuffer();
+		int[] in = workingPixels().pixels;
+		int[] out = ans.pixels;
 		
 		pushForEachParameters();
 		setForEachOutputParameters();
 		
-		forEach((y, x) -> {
+		forEachParallel((y, x) -> {
 			int imgX = (int)Math.round((x*inWidth) / ((float)outWidth));
 			int imgY = (int)Math.round((y*inHeight) / ((float)outHeight));
 			imgX = Math.min(imgX,  inWidth-1);
 			imgY = Math.min(imgY, inHeight-1);
-			ans.setRGB(x, y, workingImage.getRGB(imgX, imgY));
+			out[y*outWidth + x] = in[imgY*inWidth + imgX];
 		});
 		
 		popForEachParameters();
+		metrics.add(StageMetrics.Stage.RESAMPLE, System.nanoTime() - start);
+		event.commit();
 		
-		return ans;
+		return toImage(ans);
 	}
 	
 	//MARK: Unimplemented methods
 	public BufferedImage greyscale() {
+		return toImage(greyscalePixels());
+	}
+	
+	private PixelBuffer greyscalePixels() {
 		logger.log("Preparing greyscale...");
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent("Greyscale", inWidth, inHeight, inWidth, inHeight);
+		long start = System.nanoTime();
 		
-		int r = rgbWeights.redWeight;
-		int g = rgbWeights.greenWeight;
-		int b = rgbWeights.blueWeight;
-		int weightsSum = rgbWeights.weightsSum;
+		PixelBuffer ans = pipeline().map(greyscaleOp()).toPixels();
 		
-		BufferedImage ans = newEmptyInputSizedImage();
+		metrics.add(StageMetrics.Stage.GREYSCALE, System.nanoTime() - start);
+		event.commit();
+		logger.log("Greyscale done!");
 		
-		forEach((y, x) -> {
-			Color c = new Color(workingImage.getRGB(x, y));
-			int red = r*c.getRed();
-			int green = g*c.getGreen();
-			int blue = b*c.getBlue();
-			int greyScaled = (red + green + blue) / weightsSum;
-			Color color = new Color(greyScaled, greyScaled, greyScaled);
-			ans.setRGB(x, y, color.getRGB());
-		});
+		return ans;
+	}
+	
+	//The grey levels of the working image, as the greyscale image holds them, for the seams carvers.
+	final int[] greyLevels() {
+		logger.log("Preparing greyscale...");
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent("Greyscale", inWidth, inHeight, inWidth, inHeight);
+		long start = System.nanoTime();
+		
+		int[] ans = storedGreyscale().toPixels().pixels;
 		
+		metrics.add(StageMetrics.Stage.GREYSCALE, System.nanoTime() - start);
+		event.commit();
 		logger.log("Greyscale done!");
 		
 		return ans;
 	}
+	
+	/*
+	 * The greyscale of a pixel: the weighted channels, premultiplied by the reciprocal of the weights
+	 * sum and cached on the weights, or divided pixel by pixel for weights that rule that out.
+	 */
+	final PixelPipeline.PointOp greyscaleOp() {
+		long[][] tables = rgbWeights.greyTables();
+		if(tables != null) {
+			long[] redTable = tables[0];
+			long[] greenTable = tables[1];
+			long[] blueTable = tables[2];
+			return (row, width) -> {
+				for (int x = Vectors.ENABLED ? Vectors.KERNELS.greyscale(row, width, rgbWeights) : 0; x < width; x++) {
+					int c = row[x];
+					int greyScaled = (int)((redTable[(c >> 16) & 0xff] + greenTable[(c >> 8) & 0xff]
+							+ blueTable[c & 0xff]) >>> RGBWeights.GREY_SHIFT);
+					row[x] = 0xff000000 | greyScaled * 0x010101;
+				}
+			};
+		}
+		
+		int r = rgbWeights.redWeight;
+		int g = rgbWeights.greenWeight;
+		int b = rgbWeights.blueWeight;
+		int weightsSum = rgbWeights.weightsSum;
+		return (row, width) -> {
+			for (int x = 0; x < width; x++) {
+				int c = row[x];
+				int red = r*PixelBuffer.red(c);
+				int green = g*PixelBuffer.green(c);
+				int blue = b*PixelBuffer.blue(c);
+				int greyScaled = (red + green + blue) / weightsSum;
+				row[x] = PixelBuffer.grey(greyScaled);
+			}
+		};
+	}
+	
+	/*
+	 * The greyscale as an image of the working type stores it: a type that doesn't keep the default
+	 * RGB values maps every grey level, the same way for every pixel, so a table of the 256 read
+	 * back levels stands for writing the image and reading it back.
+	 */
+	private PixelPipeline storedGreyscale() {
+		PixelPipeline ans = pipeline().map(greyscaleOp());
+		if (PixelBuffer.isLossless(workingImageType))
+			return ans;
+		
+		PixelBuffer levels = new PixelBuffer(256, 1);
+		for (int level = 0; level < 256; level++)
+			levels.pixels[level] = PixelBuffer.grey(level);
+		int[] stored = PixelBuffer.of(toImage(levels)).pixels;
+		return ans.map((row, width) -> {
+			for (int x = 0; x < width; x++)
+				row[x] = stored[PixelBuffer.red(row[x])];
+		});
+	}
 
+	/*
+	 * The gradient magnitude of the greyscale (as the greyscale image stores it), in one fused pass:
+	 * the greyscale rows live in the rolling buffers of the pipeline only.
+	 */
 	public BufferedImage gradientMagnitude() {
 		logger.log("Preparing gradient magnitude...");
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent("Gradient magnitude", inWidth, inHeight, inWidth, inHeight);
+		long start = System.nanoTime();
 		
-		BufferedImage greyscaled = greyscale();
-		int width = inWidth;
-		int height = inHeight;
-		if (height < 2 || width < 2)
-		{
-			try {
-				throw new UnexpectedException("Image is too small");
-			} catch (UnexpectedException e) {
-				e.printStackTrace();
+		//The differences of a single row or column are to the pixel itself.
+		if (inHeight < 2 || inWidth < 2)
+			logger.log("Image is too small for a gradient in both directions, the missing one counts as 0.");
+		
+		PixelBuffer ans = storedGreyscale().neighbourhood(ImageProcessor::gradientMagnitudeRow).toPixels("Gradient magnitude");
+		
+		metrics.add(StageMetrics.Stage.GRADIENT, System.nanoTime() - start);
+		event.commit();
+		logger.log("Gradient magnitude ready!");
+		
+		return toImage(ans);
+	}
+	
+	/*
+	 * The magnitude of the forward differences to the next column and the next row, on the red
+	 * channel of grey pixels; the last column takes the one before it instead (the pipeline does the
+	 * same for the last row).
+	 */
+	private static void gradientMagnitudeRow(int[] above, int[] row, int[] below, int[] out, int width) {
+		byte[] magnitudes = GradientMagnitudes.TABLE;
+		for (int x = Vectors.ENABLED ? Vectors.KERNELS.gradientMagnitude(row, below, out, width) : 0; x < width; x++) {
+			int cCurr = PixelBuffer.red(row[x]);
+			int cPrevW = PixelBuffer.red(row[x == width-1 ? Math.max(x-1, 0) : x+1]);
+			int cPrevH = PixelBuffer.red(below[x]);
+			int dx = Math.abs(cCurr - cPrevW);
+			int dy = Math.abs(cCurr - cPrevH);
+			out[x] = PixelBuffer.grey(magnitudes[dx << 8 | dy] & 0xff);
+		}
+	}
+	
+	//(int)sqrt((dx^2 + dy^2) / 2) for every two differences of grey levels, built on first use.
+	private static final class GradientMagnitudes {
+		static final byte[] TABLE = new byte[256 * 256];
+		
+		static {
+			for (int dx = 0; dx < 256; dx++) {
+				for (int dy = 0; dy < 256; dy++)
+					TABLE[dx << 8 | dy] = (byte)(int)Math.sqrt(((double)dx * dx + (double)dy * dy) / 2);
 			}
 		}
+	}
+	
+	//MARK: Pipelines
+	//A lazy chain of point and neighbourhood operations over the working image, see PixelPipeline.
+	public final PixelPipeline pipeline() {
+		return new PixelPipeline(this, workingPixels());
+	}
 
-		BufferedImage ans = newEmptyInputSizedImage();
-
-		forEach((y, x) -> {
-			Color cCurr = new Color(greyscaled.getRGB(x, y));
-			Color cPrevH;
-			Color cPrevW;
-			if (y == height-1)
-			{
-				cPrevH = new Color(greyscaled.getRGB(x, y-1));
+	/*
+	 * Bilinear interpolation with pixel centers aligned (the output pixel x samples the input at
+	 * (x + 0.5) * inWidth / outWidth - 0.5, clamped to the image). The filter is separable: the two
+	 * source columns and the weight of every output column, and the same for the rows, are computed
+	 * once. The output is then written row by row, in parallel row bands: the two source rows of an
+	 * output row are blended into a scratch row (a straight loop the JIT vectorizes), whose two
+	 * source columns every output pixel then blends. The blends are in 8 bit fixed point, two
+	 * channels per multiply.
+	 */
+	public BufferedImage bilinear() {
+		return bilinear(false);
+	}
+	
+	/*
+	 * Bilinear interpolation of large downscales without aliasing: an axis at least MIPMAP_FACTOR
+	 * times the output is first halved, as many times as it stays so, by averaging blocks of pixels,
+	 * so that every source pixel counts and the bilinear pass only finishes a ratio below 2.
+	 * Close to areaAverage in quality at about half of its cost, but slower than bilinear, which
+	 * reads only two source rows per output row (MipmapBenchmark), so callers choose it (the scale
+	 * menu offers it next to plain bilinear).
+	 */
+	public BufferedImage bilinearMipmap() {
+		return bilinear(true);
+	}
+	
+	private BufferedImage bilinear(boolean mipmap) {
+		logger.log("Preparing for bilinear interpolation...");
+		cancellationToken.throwIfCancelled();
+		mipmap &= inWidth >= MIPMAP_FACTOR * outWidth || inHeight >= MIPMAP_FACTOR * outHeight;
+		ImageOperationEvent event = new ImageOperationEvent(mipmap ? "Bilinear, mipmap" : "Bilinear",
+				inWidth, inHeight, outWidth, outHeight);
+		long start = System.nanoTime();
+		
+		PixelBuffer source = workingPixels();
+		int[] firstLevel = null;
+		PixelBuffer ans;
+		pushForEachParameters();
+		try {
+			while (mipmap) {
+				int columnShift = mipmapShift(source.width, outWidth);
+				int rowShift = mipmapShift(source.height, outHeight);
+				if (columnShift + rowShift == 0)
+					break;
+				int width = source.width >> columnShift;
+				int height = source.height >> rowShift;
+				//The first level is the large one; it comes from, and goes back to, the kept intermediate.
+				if (firstLevel == null) {
+					firstLevel = takeIntermediate(width * height);
+					source = reduce(source, columnShift, rowShift, new PixelBuffer(width, height, firstLevel));
+				} else {
+					source = reduce(source, columnShift, rowShift, new PixelBuffer(width, height));
+				}
 			}
-			else
-			{
-				cPrevH = new Color(greyscaled.getRGB(x, y+1));
+			ans = bilinear(source);
+		} finally {
+			popForEachParameters();
+			if (firstLevel != null)
+				giveBackIntermediate(firstLevel);
+		}
+		
+		metrics.add(StageMetrics.Stage.RESAMPLE, System.nanoTime() - start);
+		event.commit();
+		logger.log("Bilinear interpolation done!");
+		return toImage(ans);
+	}
+	
+	//The bilinear pass from a source of any size to the output size.
+	private PixelBuffer bilinear(PixelBuffer source) {
+		int[] in = source.pixels;
+		PixelBuffer ans = newOutputSizedBuffer();
+		int[] out = ans.pixels;
+		int width = source.width;
+		int[][] columns = bilinearTaps(source.width, outWidth);
+		int[][] rows = bilinearTaps(source.height, outHeight);
+		int[] left = columns[0];
+		int[] right = columns[1];
+		int[] columnWeights = columns[2];
+		AtomicInteger rowsDone = new AtomicInteger();
+		progress("Bilinear interpolation", 0, outHeight);
+		
+		setForEachOutputParameters();
+		forEachRowParallel((y, fromX, toX) -> {
+			cancellationToken.throwIfCancelled();
+			int top = rows[0][y] * width;
+			int bottom = rows[1][y] * width;
+			int rowWeight = rows[2][y];
+			int[] blended = in;
+			int offset = top;
+			if (rowWeight != 0) {
+				blended = scratchRow(width);
+				offset = 0;
+				for (int x = 0; x < width; x++)
+					blended[x] = lerp(in[top + x], in[bottom + x], rowWeight);
 			}
-			if (x == width-1)
-			{
-				cPrevW = new Color(greyscaled.getRGB(x-1, y));
+			for (int x = fromX, o = y*outWidth + fromX; x < toX; x++, o++)
+				out[o] = 0xff000000 | lerp(blended[offset + left[x]], blended[offset + right[x]], columnWeights[x]);
+			progress("Bilinear interpolation", rowsDone.incrementAndGet(), outHeight);
+		});
+		return ans;
+	}
+	
+	/*
+	 * How many times an axis of the given size halves before it is less than twice the output,
+	 * up to MAX_MIPMAP_SHIFT at a time.
+	 */
+	private static int mipmapShift(int size, int outSize) {
+		int ans = 0;
+		while (ans < MAX_MIPMAP_SHIFT && size >> ans >= MIPMAP_FACTOR * outSize)
+			ans++;
+		return ans;
+	}
+	
+	/*
+	 * The mipmap level that halves the columns columnShift times and the rows rowShift times, into
+	 * ans, in one pass: every pixel is the rounded average of its block of source pixels (the
+	 * columns and rows past the last whole block are dropped). The source rows of an output row are
+	 * first summed column by column, a loop the JIT vectorizes, then every block of columns. Red and
+	 * blue share an int: a channel sum of at most 2^8 pixels takes 16 bits, so they don't overlap.
+	 */
+	private PixelBuffer reduce(PixelBuffer source, int columnShift, int rowShift, PixelBuffer ans) {
+		int[] in = source.pixels;
+		int[] out = ans.pixels;
+		int sourceWidth = source.width;
+		int width = ans.width;
+		int blockWidth = 1 << columnShift;
+		int blockHeight = 1 << rowShift;
+		int shift = columnShift + rowShift;
+		int half = (1 << shift) >> 1;
+		AtomicInteger rowsDone = new AtomicInteger();
+		progress("Mipmap level", 0, ans.height);
+		
+		setForEachParameters(ans.width, ans.height);
+		forEachRowParallel((y, fromX, toX) -> {
+			cancellationToken.throwIfCancelled();
+			int n = (toX - fromX) << columnShift;
+			int[] sums = scratchRow(2 * n);
+			Arrays.fill(sums, 0, 2 * n, 0);
+			for (int r = 0; r < blockHeight; r++) {
+				int row = ((y << rowShift) + r) * sourceWidth + (fromX << columnShift);
+				for (int x = 0; x < n; x++) {
+					int c = in[row + x];
+					sums[x] += c & 0xff00ff;
+					sums[n + x] += c & 0xff00;
+				}
 			}
-			else
-			{
-				cPrevW = new Color(greyscaled.getRGB(x+1, y));
+			for (int x = fromX, o = y*width + fromX, i = 0; x < toX; x++, o++) {
+				int redBlue = half * 0x010001;
+				int green = half << 8;
+				for (int end = i + blockWidth; i < end; i++) {
+					redBlue += sums[i];
+					green += sums[n + i];
+				}
+				out[o] = ((redBlue >>> shift) & 0xff00ff) | ((green >>> shift) & 0xff00);
 			}
-			double dx = Math.abs(cCurr.getRed() - cPrevW.getRed());
-			double dy = Math.abs(cCurr.getRed() - cPrevH.getRed());
-			int magnitude = (int) Math.sqrt((dx * dx + dy * dy) / 2);
-			Color color = new Color(magnitude, magnitude, magnitude);
-			ans.setRGB(x, y, color.getRGB());
+			progress("Mipmap level", rowsDone.incrementAndGet(), ans.height);
 		});
-		
-		logger.log("Gradient magnitude ready!");
-		
 		return ans;
 	}
-
-	public BufferedImage bilinear() {
-		logger.log("Preparing for bilinear interpolation...");
-		BufferedImage ans = newEmptyOutputSizedImage();
-
-		// calculating new positions
-		double newX = inWidth / (outWidth + 1.0);
-		double newY = inHeight / (outHeight + 1.0);
-		double tempY = newY;
-		double tempX = newX;
-		int topLeftX, topRightX, bottomRightX, bottomLeftX;
-		int topLeftY, topRightY, bottomRightY, bottomLeftY;
-
-		for (int i = 0; i < outWidth; i++) {
-			for (int j = 0; j < outHeight; j++) {
-
-				bottomLeftX = bottomRightX = topLeftX = topRightX = (int)Math.floor(tempX);
-				bottomLeftY = bottomRightY = topLeftY = topRightY = (int)Math.floor(tempY);
-
-				// checking width boundries
-				if (topRightX == inWidth - 1)
-					topRightX = inWidth - 1;
-				if (bottomRightX == inWidth - 1)
-					bottomRightX = inWidth - 1;
-				if (topLeftX == 0)
-					topLeftX = 0;
-				if (bottomLeftX == 0)
-					bottomLeftX = 0;
-
-				// checking height boundries
-				if (bottomLeftY == 0)
-					bottomLeftY = 0;
-				if (bottomRightY == 0)
-					bottomRightY = 0;
-				if (topLeftY == inHeight - 1)
-					topLeftY = inHeight - 1;
-				if (topRightY == inHeight - 1)
-					topRightY = inHeight - 1;
-
-				// calculating u and v vectors
-				double u = Math.abs(bottomLeftX - tempX);
-				double v = Math.abs(bottomRightY - tempY);
-
-				// creating neighboring colors
-				Color topLeftColor = new Color(workingImage.getRGB(topLeftX, topLeftY));
-				Color topRightColor = new Color(workingImage.getRGB(topRightX, topRightY));
-				Color bottomLeftColor = new Color(workingImage.getRGB(bottomLeftX, bottomLeftY));
-				Color bottomRightColor = new Color(workingImage.getRGB(bottomRightX, bottomRightY));
-
-				int newRed = (int) (((int) ((bottomLeftColor.getRed() * u) + (bottomRightColor.getRed() * (1 - u))) * v) +
-						(int) ((topLeftColor.getRed() * u) + (topRightColor.getRed() * (1 - u))) * (1 - v));
-
-				int newGreen = (int) ((((bottomLeftColor.getGreen() * u) + (bottomRightColor.getGreen() * (1 - u))) * v) +
-						((int) ((topLeftColor.getGreen() * u) + (topRightColor.getGreen() * (1 - u))) * (1 - v)));
-
-				int newBlue = (int) (((int) ((bottomRightColor.getBlue() * u) + (bottomLeftColor.getBlue() * (1 - u))) * v) +
-						((int) ((topLeftColor.getBlue() * u) + (topRightColor.getBlue() * (1 - u))) * (1 - v)));
-
-				if (newBlue > 255)
-					newBlue = 255;
-				if (newBlue < 0)
-					newBlue = 0;
-				if (newRed > 255)
-					newRed = 255;
-				if (newRed < 0)
-					newRed = 0;
-				if (newGreen > 255)
-					newGreen = 255;
-				if (newGreen < 0)
-					newGreen = 0;
-
-				Color color = new Color(newRed, newGreen, newBlue);
-
-				ans.setRGB(i, j, color.getRGB());
-				tempY += newY;
-			}
-			tempX += newX;
-			tempY = 0;
+	
+	//A row of at least the given length for the calling thread to blend into.
+	private static int[] scratchRow(int length) {
+		int[] ans = scratchRows.get();
+		if (ans.length < length) {
+			ans = new int[length];
+			scratchRows.set(ans);
 		}
-		logger.log("Bilinear interpolation done!");
 		return ans;
 	}
 	
+	/*
+	 * The taps of a bilinear resampling of an axis of inSize pixels to outSize: for every output
+	 * pixel the first and the second source pixel, and the weight of the second one out of 256.
+	 */
+	private static int[][] bilinearTaps(int inSize, int outSize) {
+		int[][] ans = new int[3][outSize];
+		double scale = inSize / (double)outSize;
+		for (int i = 0; i < outSize; i++) {
+			double source = Math.max(0, (i + 0.5) * scale - 0.5);
+			int first = Math.min((int)source, inSize - 1);
+			int second = Math.min(first + 1, inSize - 1);
+			ans[0][i] = first;
+			ans[1][i] = second;
+			ans[2][i] = second == first ? 0 : (int)Math.round((source - first) * 256);
+		}
+		return ans;
+	}
+	
+	/*
+	 * a * (256 - w) / 256 + b * w / 256 per channel, rounded, alpha dropped. Red and blue share a
+	 * multiply: each of them times 256 still fits its 16 bits of the product.
+	 */
+	private static int lerp(int a, int b, int w) {
+		int redBlue = (((a & 0xff00ff) * (256 - w) + (b & 0xff00ff) * w + 0x800080) >>> 8) & 0xff00ff;
+		int green = (((a & 0xff00) * (256 - w) + (b & 0xff00) * w + 0x8000) >>> 8) & 0xff00;
+		return redBlue | green;
+	}
+	
+	//MARK: Separable filters
+	public BufferedImage bicubic() {
+		return resample(ResamplingFilter.BICUBIC);
+	}
+	
+	public BufferedImage lanczos3() {
+		return resample(ResamplingFilter.LANCZOS3);
+	}
+	
+	public BufferedImage areaAverage() {
+		return resample(ResamplingFilter.AREA);
+	}
+	
+	/*
+	 * Resampling with a separable filter in two passes: every source row is filtered horizontally
+	 * into an intermediate image outWidth wide, whose rows are then filtered vertically into the
+	 * output. The taps of both axes come from the filter's cache, and the intermediate image is kept
+	 * for the next call. Both passes run in parallel row bands, in 14 bit fixed point per channel,
+	 * clamping the overshoot of the negative lobes.
+	 */
+	public BufferedImage resample(ResamplingFilter filter) {
+		logger.log("Preparing for " + filter.description + " resampling...");
+		cancellationToken.throwIfCancelled();
+		ImageOperationEvent event = new ImageOperationEvent(filter.description, inWidth, inHeight, outWidth, outHeight);
+		long start = System.nanoTime();
+		
+		int[] in = workingPixels().pixels;
+		PixelBuffer ans = newOutputSizedBuffer();
+		int[] out = ans.pixels;
+		int width = inWidth;
+		int resampledWidth = outWidth;
+		ResamplingTaps columns = filter.taps(inWidth, outWidth);
+		ResamplingTaps rows = filter.taps(inHeight, outHeight);
+		int[] intermediate = takeIntermediate(outWidth * inHeight);
+		AtomicInteger rowsDone = new AtomicInteger();
+		int totalRows = inHeight + outHeight;
+		progress(filter.description, 0, totalRows);
+		
+		pushForEachParameters();
+		try {
+			setForEachParameters(outWidth, inHeight);
+			forEachRowParallel((y, fromX, toX) -> {
+				cancellationToken.throwIfCancelled();
+				int row = y * width;
+				for (int x = fromX; x < toX; x++) {
+					int from = row + columns.first[x];
+					int taps = columns.count[x];
+					int offset = x * columns.stride;
+					int red = 0, green = 0, blue = 0;
+					for (int k = 0; k < taps; k++) {
+						int c = in[from + k];
+						int w = columns.weights[offset + k];
+						red += ((c >> 16) & 0xff) * w;
+						green += ((c >> 8) & 0xff) * w;
+						blue += (c & 0xff) * w;
+					}
+					intermediate[y*resampledWidth + x] = (clampChannel(red) << 16) | (clampChannel(green) << 8) | clampChannel(blue);
+				}
+				progress(filter.description, rowsDone.incrementAndGet(), totalRows);
+			});
+			
+			setForEachOutputParameters();
+			forEachRowParallel((y, fromX, toX) -> {
+				cancellationToken.throwIfCancelled();
+				int n = toX - fromX;
+				int[] sums = scratchRow(3 * n);
+				Arrays.fill(sums, 0, 3 * n, 0);
+				int offset = y * rows.stride;
+				for (int k = 0, taps = rows.count[y]; k < taps; k++) {
+					int w = rows.weights[offset + k];
+					int row = (rows.first[y] + k) * resampledWidth + fromX;
+					for (int x = 0; x < n; x++) {
+						int c = intermediate[row + x];
+						sums[x] += ((c >> 16) & 0xff) * w;
+						sums[n + x] += ((c >> 8) & 0xff) * w;
+						sums[2*n + x] += (c & 0xff) * w;
+					}
+				}
+				for (int x = 0, o = y*resampledWidth + fromX; x < n; x++, o++)
+					out[o] = 0xff000000 | (clampChannel(sums[x]) << 16) | (clampChannel(sums[n + x]) << 8) | clampChannel(sums[2*n + x]);
+				progress(filter.description, rowsDone.incrementAndGet(), totalRows);
+			});
+		} finally {
+			popForEachParameters();
+			giveBackIntermediate(intermediate);
+		}
+		
+		metrics.add(StageMetrics.Stage.RESAMPLE, System.nanoTime() - start);
+		event.commit();
+		logger.log(filter.description + " resampling done!");
+		return toImage(ans);
+	}
+	
+	//A fixed point channel sum back to 0..255.
+	private static int clampChannel(int sum) {
+		int ans = (sum + (ResamplingTaps.ONE >> 1)) >> ResamplingTaps.PRECISION_BITS;
+		return ans < 0 ? 0 : ans > 255 ? 255 : ans;
+	}
+	
+	/*
+	 * The intermediate image of the last resampling is kept, softly, for the next one. A call takes
+	 * it for itself, so concurrent calls never share one.
+	 */
+	private static int[] takeIntermediate(int length) {
+		SoftReference<int[]> kept = intermediates.getAndSet(null);
+		int[] ans = kept == null ? null : kept.get();
+		return ans != null && ans.length >= length ? ans : new int[length];
+	}
+	
+	private static void giveBackIntermediate(int[] intermediate) {
+		intermediates.set(new SoftReference<>(intermediate));
+	}
+	
+	//MARK: Progress, cancellation and metrics
+	public final void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener == null ? ProgressListener.NONE : progressListener;
+	}
+	
+	public final ProgressListener getProgressListener() {
+		return progressListener;
+	}
+	
+	//The token is checked between units of work; a cancelled operation throws a CancellationException.
+	public final void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken == null ? new CancellationToken() : cancellationToken;
+	}
+	
+	public final CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+	
+	//A copy of the stage counters so far; safe to call from another thread.
+	public final StageMetrics getMetrics() {
+		return metrics.snapshot();
+	}
+	
+	//Passes progress on to the listener at the start, the end and every whole percent in between.
+	//Parallel loops may report out of order, so only the first report of a higher percent counts.
+	final synchronized void progress(String stage, int done, int total) {
+		int percent = total == 0 ? 100 : (int)(100L * done / total);
+		if(done == 0 || done == total || percent > lastPercent) {
+			lastPercent = percent;
+			progressListener.progress(stage, done, total);
+		}
+	}
+	
+	//Makes another processor report to the same listener, token and counters as this one.
+	final void shareInstrumentation(ImageProcessor other) {
+		other.progressListener = progressListener;
+		other.cancellationToken = cancellationToken;
+		shareMetrics(other);
+	}
+	
+	//Makes another processor count into the counters of this one, with what it counted so far.
+	final void shareMetrics(ImageProcessor other) {
+		metrics.addAll(other.metrics);
+		other.metrics = metrics;
+	}
+	
 	//MARK: Utilities
 	public final void setForEachInputParameters() {
 		setForEachParameters(inWidth, inHeight);
@@ -264,12 +643,34 @@ public class ImageProcessor extends FunctioalForEachLoops {
 	}
 	
 	public final BufferedImage duplicateWorkingImage() {
-		BufferedImage output = newEmptyInputSizedImage();
+		int[] in = workingPixels().pixels;
+		PixelBuffer output = newInputSizedBuffer();
 		
-		forEach((y, x) -> 
-			output.setRGB(x, y, workingImage.getRGB(x, y))
-		);
+		System.arraycopy(in, 0, output.pixels, 0, in.length);
 		
-		return output;
+		return toImage(output);
+	}
+	
+	//MARK: Raster access
+	/*
+	 * The working image converted (once) into a packed ARGB buffer.
+	 * Operations must treat it as read only.
+	 */
+	final PixelBuffer workingPixels() {
+		if(workingPixels == null)
+			workingPixels = PixelBuffer.of(workingImage);
+		return workingPixels;
+	}
+	
+	final PixelBuffer newInputSizedBuffer() {
+		return new PixelBuffer(inWidth, inHeight);
+	}
+	
+	final PixelBuffer newOutputSizedBuffer() {
+		return new PixelBuffer(outWidth, outHeight);
+	}
+	
+	final BufferedImage toImage(PixelBuffer buffer) {
+		return buffer.toImage(workingImageType);
 	}
 }
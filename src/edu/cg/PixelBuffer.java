@@ -0,0 +1,137 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/*
+ * A packed ARGB raster (one int per pixel, row major, stride == width).
+ * The image processing operations convert their input once into a pixel buffer,
+ * work over the primitive array, and wrap the result back into a BufferedImage.
+ */
+final class PixelBuffer {
+	private static final int[] RGB_MASKS = { 0x00ff0000, 0x0000ff00, 0x000000ff };
+	private static final int[] ARGB_MASKS = { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 };
+
+	public final int width;
+	public final int height;
+	public final int[] pixels;
+
+	public PixelBuffer(int width, int height) {
+		this(width, height, new int[width * height]);
+	}
+
+	public PixelBuffer(int width, int height, int[] pixels) {
+		if(pixels.length < width * height)
+			throw new IllegalArgumentException("Pixel array is smaller than " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+	}
+
+	public static PixelBuffer of(BufferedImage img) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int[] pixels = new int[width * height];
+
+		switch(img.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+			//The data elements are exactly the default RGB values.
+			img.getRaster().getDataElements(0, 0, width, height, pixels);
+			break;
+
+		case BufferedImage.TYPE_INT_RGB:
+			img.getRaster().getDataElements(0, 0, width, height, pixels);
+			for(int i = 0; i < pixels.length; ++i)
+				pixels[i] |= 0xff000000;
+			break;
+
+		default:
+			img.getRGB(0, 0, width, height, pixels, 0, width);
+		}
+
+		return new PixelBuffer(width, height, pixels);
+	}
+
+	public int get(int x, int y) {
+		return pixels[y * width + x];
+	}
+
+	public void set(int x, int y, int argb) {
+		pixels[y * width + x] = argb;
+	}
+
+	/*
+	 * Returns this buffer as an image that behaves like a 'like-typed' image filled by setRGB.
+	 * Whenever that image type stores the default RGB values losslessly, the pixel array
+	 * is wrapped as is (no copy); otherwise an image of that type is filled in one bulk call.
+	 */
+	public BufferedImage toImage(int likeType) {
+		if(isLossless(likeType))
+			return wrap(hasAlpha(likeType));
+
+		BufferedImage ans = new BufferedImage(width, height, likeType);
+		ans.setRGB(0, 0, width, height, pixels, 0, width);
+		return ans;
+	}
+
+	/*
+	 * Whether an image of the given type returns from getRGB exactly what was given to setRGB
+	 * (for opaque colors, and for every color when the type has an alpha channel).
+	 */
+	public static boolean isLossless(int imageType) {
+		switch(imageType) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_BGR:
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean hasAlpha(int imageType) {
+		return imageType == BufferedImage.TYPE_INT_ARGB || imageType == BufferedImage.TYPE_4BYTE_ABGR;
+	}
+
+	private BufferedImage wrap(boolean alpha) {
+		DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+		ColorModel cm = alpha ? ColorModel.getRGBdefault() :
+			new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+		WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width,
+				alpha ? ARGB_MASKS : RGB_MASKS, null);
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	//MARK: Channels
+	public static int red(int argb) {
+		return (argb >> 16) & 0xff;
+	}
+
+	public static int green(int argb) {
+		return (argb >> 8) & 0xff;
+	}
+
+	public static int blue(int argb) {
+		return argb & 0xff;
+	}
+
+	public static int rgb(int red, int green, int blue) {
+		return 0xff000000 | (red << 16) | (green << 8) | blue;
+	}
+
+	public static int grey(int value) {
+		return rgb(value, value, value);
+	}
+
+	//The per channel average (rounded down) of two colors, alpha included.
+	public static int average(int argb1, int argb2) {
+		return ((argb1 >>> 1) & 0x7f7f7f7f) + ((argb2 >>> 1) & 0x7f7f7f7f) + (argb1 & argb2 & 0x01010101);
+	}
+}
@@ -0,0 +1,24 @@
+package edu.cg;
+
+/*
+ * SIMD versions of the inner loops of the per pixel operations and of the seams carver's energy.
+ * Every kernel does a prefix of its range and returns where it stopped, so that the scalar loop of
+ * the caller does the rest; its results are exactly those of the scalar loop. The implementation
+ * lives in a source root of its own, see Vectors.
+ */
+interface PixelKernels {
+	//Whether the kernels run faster than the scalar loops on this hardware.
+	public boolean supported();
+
+	//row[x] = the grey pixel of row[x] in place, from x = 0 on.
+	public int greyscale(int[] row, int width, RGBWeights weights);
+
+	//out[i] = the hue changed in[i], from i = from on.
+	public int changeHue(int[] in, int[] out, int from, int to, RGBWeights weights);
+
+	//out[x] = the gradient magnitude of row[x] with row[x + 1] and below[x], from x = 0 on.
+	public int gradientMagnitude(int[] row, int[] below, int[] out, int width);
+
+	//codes[i + x] = |dh| << 8 | |dv| of grey[i + x] to grey[i + x + 1] and grey[next + x], from x = 0 on.
+	public int energy(int[] grey, int i, int next, short[] codes, int columns);
+}
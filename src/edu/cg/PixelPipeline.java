@@ -0,0 +1,139 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A lazy chain of point and 3x3 neighbourhood operations over the pixels of an image, run as one
+ * streaming pass over the scanlines only when its result is asked for. Point operations map a row
+ * in place right after it is made; a neighbourhood operation makes a row out of three rows of the
+ * stage before it, which every thread keeps in a rolling buffer of three rows per stage. So however
+ * long the chain, the source is read once and the result written once.
+ * The rows past the top and the bottom edge mirror the ones inside (the row above the first one is
+ * the second one); a neighbourhood operation deals with the columns past the edges itself.
+ */
+public final class PixelPipeline {
+	// Maps every pixel of row[0, width) in place, independently of the others.
+	@FunctionalInterface
+	public static interface PointOp {
+		public void apply(int[] row, int width);
+	}
+
+	// Writes out[0, width) from a row and the rows above and below it.
+	@FunctionalInterface
+	public static interface NeighbourhoodOp {
+		public void apply(int[] above, int[] row, int[] below, int[] out, int width);
+	}
+
+	private final ImageProcessor processor;
+	private final PixelBuffer source;
+	// The stages: the source, then one per neighbourhood operation, each with its point operations.
+	private final List<NeighbourhoodOp> neighbourhoods = new ArrayList<>();
+	private final List<List<PointOp>> points = new ArrayList<>();
+
+	PixelPipeline(ImageProcessor processor, PixelBuffer source) {
+		this.processor = processor;
+		this.source = source;
+		points.add(new ArrayList<>());
+	}
+
+	public PixelPipeline map(PointOp op) {
+		points.get(points.size() - 1).add(op);
+		return this;
+	}
+
+	public PixelPipeline neighbourhood(NeighbourhoodOp op) {
+		neighbourhoods.add(op);
+		points.add(new ArrayList<>());
+		return this;
+	}
+
+	// Runs the chain into an image of the processor's working type.
+	public BufferedImage toImage() {
+		return processor.toImage(toPixels());
+	}
+
+	// Runs the chain in parallel row bands of the processor, checking its cancellation token per row.
+	PixelBuffer toPixels() {
+		return toPixels(null);
+	}
+
+	// The same, reporting the rows done to the processor's progress listener under the given stage.
+	PixelBuffer toPixels(String stage) {
+		int width = source.width;
+		int height = source.height;
+		PixelBuffer ans = new PixelBuffer(width, height);
+		int[] out = ans.pixels;
+		int last = neighbourhoods.size();
+		CancellationToken cancellationToken = processor.getCancellationToken();
+		ThreadLocal<Rows> rows = ThreadLocal.withInitial(Rows::new);
+		AtomicInteger rowsDone = new AtomicInteger();
+		if (stage != null)
+			processor.progress(stage, 0, height);
+
+		processor.pushForEachParameters();
+		try {
+			processor.setForEachParameters(width, height);
+			processor.forEachRowParallel((y, fromX, toX) -> {
+				cancellationToken.throwIfCancelled();
+				System.arraycopy(rows.get().row(last, y), 0, out, y * width, width);
+				if (stage != null)
+					processor.progress(stage, rowsDone.incrementAndGet(), height);
+			});
+		} finally {
+			processor.popForEachParameters();
+		}
+		return ans;
+	}
+
+	/*
+	 * The rolling buffers of a thread: the last three rows of every stage, in the slot of their row
+	 * index modulo 3. Row bands are visited top down, so every row of a stage is made once per band
+	 * (and the rows around a band once more by the next one).
+	 */
+	private final class Rows {
+		private final int[][][] buffers;
+		private final int[][] indices;
+
+		Rows() {
+			int stages = points.size();
+			buffers = new int[stages][3][source.width];
+			indices = new int[stages][3];
+			for (int[] stage : indices)
+				Arrays.fill(stage, -1);
+		}
+
+		int[] row(int stage, int y) {
+			int slot = y % 3;
+			int[] ans = buffers[stage][slot];
+			if (indices[stage][slot] == y)
+				return ans;
+
+			int width = source.width;
+			if (stage == 0) {
+				System.arraycopy(source.pixels, y * width, ans, 0, width);
+			} else {
+				int[] above = row(stage - 1, mirror(y - 1));
+				int[] row = row(stage - 1, y);
+				int[] below = row(stage - 1, mirror(y + 1));
+				neighbourhoods.get(stage - 1).apply(above, row, below, ans, width);
+			}
+			for (PointOp op : points.get(stage))
+				op.apply(ans, width);
+			indices[stage][slot] = y;
+			return ans;
+		}
+
+		private int mirror(int y) {
+			int height = source.height;
+			if (y < 0)
+				return Math.min(1, height - 1);
+			if (y >= height)
+				return Math.max(height - 2, 0);
+			return y;
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package edu.cg;
+
+//Structured progress of a long running operation: 'done' of 'total' units of the named stage.
+@FunctionalInterface
+public interface ProgressListener {
+	public static final ProgressListener NONE = (stage, done, total) -> {};
+	
+	public void progress(String stage, int done, int total);
+}
@@ -6,7 +6,16 @@ public class RGBWeights {
 	public final int blueWeight;
 	public final int weightsSum;
 	public final int maxWeight;
-	
+
+	//The lookup tables of the per pixel kernels, built on first use and then shared by every
+	//processor of these weights.
+	private volatile int[][] hueTables;
+	private volatile long[][] greyTables;
+	private volatile boolean greyTablesBuilt;
+
+	//Greyscale divides the weighted sum by the weights sum as a multiply by 2^GREY_SHIFT / sum.
+	static final int GREY_SHIFT = 40;
+
 	public RGBWeights(int redWeight, int greenWeight, int blueWeight) {
 		this.redWeight = redWeight;
 		this.greenWeight = greenWeight;
@@ -14,4 +23,47 @@ public class RGBWeights {
 		weightsSum = redWeight + greenWeight + blueWeight;
 		maxWeight = Math.max(redWeight, Math.max(greenWeight, blueWeight));
 	}
+
+	/*
+	 * For every channel, the 256 hue changed values (weight * value / maxWeight) already in the
+	 * position of the channel in a packed pixel, so that a pixel is the OR of three lookups.
+	 */
+	int[][] hueTables() {
+		int[][] ans = hueTables;
+		if(ans == null) {
+			int[] weights = { redWeight, greenWeight, blueWeight };
+			ans = new int[3][256];
+			for(int channel = 0; channel < 3; channel++) {
+				int shift = 16 - 8 * channel;
+				for(int value = 0; value < 256; value++)
+					ans[channel][value] = (weights[channel] * value / maxWeight) << shift;
+			}
+			hueTables = ans;
+		}
+		return ans;
+	}
+
+	/*
+	 * For every channel, the 256 products weight * value * ceil(2^GREY_SHIFT / weightsSum), so that
+	 * the grey level of a pixel is the sum of three lookups shifted right by GREY_SHIFT.
+	 * The shift is exact as long as 255 * weightsSum^2 <= 2^GREY_SHIFT; other weights (negative ones,
+	 * or a sum beyond 65000) get null and are divided pixel by pixel.
+	 */
+	long[][] greyTables() {
+		if(!greyTablesBuilt) {
+			long sum = weightsSum;
+			if(redWeight >= 0 && greenWeight >= 0 && blueWeight >= 0 && sum > 0 && 255 * sum * sum <= 1L << GREY_SHIFT) {
+				long reciprocal = ((1L << GREY_SHIFT) + sum - 1) / sum;
+				int[] weights = { redWeight, greenWeight, blueWeight };
+				long[][] ans = new long[3][256];
+				for(int channel = 0; channel < 3; channel++) {
+					for(int value = 0; value < 256; value++)
+						ans[channel][value] = (long)weights[channel] * value * reciprocal;
+				}
+				greyTables = ans;
+			}
+			greyTablesBuilt = true;
+		}
+		return greyTables;
+	}
 }
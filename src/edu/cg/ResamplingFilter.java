@@ -0,0 +1,70 @@
+package edu.cg;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The filters of the separable resampling of ImageProcessor.resample. A filter is a kernel of a
+ * radius in source pixels, stretched by the scale when scaling down so that it averages every
+ * source pixel it covers. The area filter is the exact coverage of every source pixel by the output
+ * pixel instead.
+ */
+public enum ResamplingFilter {
+	BICUBIC("Bicubic", 2) {
+		// Keys' cubic convolution with a = -0.5 (Catmull-Rom).
+		@Override
+		double weight(double x) {
+			x = Math.abs(x);
+			if (x < 1)
+				return (1.5 * x - 2.5) * x * x + 1;
+			if (x < 2)
+				return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+			return 0;
+		}
+	},
+	LANCZOS3("Lanczos-3", 3) {
+		@Override
+		double weight(double x) {
+			x = Math.abs(x);
+			if (x == 0)
+				return 1;
+			if (x >= 3)
+				return 0;
+			double px = Math.PI * x;
+			return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+		}
+	},
+	AREA("Area average", 1) {
+		@Override
+		double weight(double x) {
+			return Math.abs(x) < 0.5 ? 1 : 0;
+		}
+	};
+
+	// Tables per filter are cleared rather than grown past this many size pairs.
+	private static final int MAX_CACHED_TAPS = 64;
+
+	public final String description;
+	final double radius;
+	private final Map<Long, ResamplingTaps> taps = new ConcurrentHashMap<>();
+
+	private ResamplingFilter(String description, double radius) {
+		this.description = description;
+		this.radius = radius;
+	}
+
+	// The kernel at x source pixels off the center, before the stretch of a downscale.
+	abstract double weight(double x);
+
+	// The taps of an axis of inSize pixels resampled to outSize, computed once per pair.
+	final ResamplingTaps taps(int inSize, int outSize) {
+		long key = (long)inSize << 32 | outSize;
+		ResamplingTaps ans = taps.get(key);
+		if (ans == null) {
+			if (taps.size() >= MAX_CACHED_TAPS)
+				taps.clear();
+			ans = taps.computeIfAbsent(key, k -> new ResamplingTaps(this, inSize, outSize));
+		}
+		return ans;
+	}
+}
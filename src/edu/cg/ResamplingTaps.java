@@ -0,0 +1,76 @@
+package edu.cg;
+
+/*
+ * The weights of a resampling filter along one axis: for every output pixel, the first source pixel
+ * and how many follow it, with their weights in fixed point (out of 1 << PRECISION_BITS, summing to
+ * exactly that). The window is clipped to the image and renormalized, so the edges don't darken.
+ */
+final class ResamplingTaps {
+	static final int PRECISION_BITS = 14;
+	static final int ONE = 1 << PRECISION_BITS;
+
+	final int outSize;
+	final int stride; // The most taps of an output pixel; the weights of pixel i start at i * stride.
+	final int[] first;
+	final int[] count;
+	final int[] weights;
+
+	ResamplingTaps(ResamplingFilter filter, int inSize, int outSize) {
+		this.outSize = outSize;
+		double scale = inSize / (double)outSize;
+		double filterScale = Math.max(scale, 1);
+		double support = filter == ResamplingFilter.AREA ? Math.max(scale, 1) : filter.radius * filterScale;
+		stride = Math.min(inSize, (int)Math.ceil(2 * support) + 2);
+		first = new int[outSize];
+		count = new int[outSize];
+		weights = new int[outSize * stride];
+
+		double[] exact = new double[stride];
+		for (int i = 0; i < outSize; i++) {
+			int from, to;
+			if (filter == ResamplingFilter.AREA) {
+				// How much of every source pixel the output pixel covers.
+				double low = i * scale;
+				double high = Math.min(inSize, (i + 1) * scale);
+				from = Math.min((int)low, inSize - 1);
+				to = Math.min(inSize, Math.max(from + 1, (int)Math.ceil(high)));
+				for (int j = from; j < to; j++)
+					exact[j - from] = Math.max(0, Math.min(j + 1, high) - Math.max(j, low));
+			} else {
+				double center = (i + 0.5) * scale;
+				from = Math.max(0, (int)Math.floor(center - support));
+				to = Math.min(inSize, (int)Math.ceil(center + support));
+				for (int j = from; j < to; j++)
+					exact[j - from] = filter.weight((j + 0.5 - center) / filterScale);
+			}
+			to = Math.min(to, from + stride);
+			first[i] = from;
+			count[i] = to - from;
+			quantize(exact, to - from, weights, i * stride);
+		}
+	}
+
+	/*
+	 * Normalizes the n exact weights to ONE and rounds them, giving the rounding error to the largest
+	 * one so that a flat area stays exactly flat. A window without weight takes its first pixel.
+	 */
+	private static void quantize(double[] exact, int n, int[] ans, int offset) {
+		double sum = 0;
+		for (int k = 0; k < n; k++)
+			sum += exact[k];
+		if (sum == 0) {
+			ans[offset] = ONE;
+			return;
+		}
+		int total = 0;
+		int largest = 0;
+		for (int k = 0; k < n; k++) {
+			int w = (int)Math.round(exact[k] / sum * ONE);
+			ans[offset + k] = w;
+			total += w;
+			if (w > ans[offset + largest])
+				largest = k;
+		}
+		ans[offset + largest] += ONE - total;
+	}
+}
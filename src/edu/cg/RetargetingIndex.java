@@ -0,0 +1,271 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+/*
+ * The seam removal order of an image, computed once, from which the image can be carved to any
+ * size within range by a linear scan, without any DP.
+ *
+ * For every direction the index holds a removal rank per pixel: the number of the seam that removed
+ * it when seams of that direction were carved from the master image one after the other (pixels that
+ * were never removed get the number of seams carved). Every row holds exactly one pixel of each rank
+ * below that (every column, for horizontal seams), so carving k seams is keeping the pixels whose
+ * rank is at least k. Changing a single dimension this way gives exactly what carving gives.
+ * When both dimensions change, the width is changed first and then every column keeps its pixels
+ * with the highest horizontal ranks, an approximation of vertical first carving.
+ */
+public class RetargetingIndex {
+	private static final int MAGIC = 0x53435249; // "SCRI"
+	private static final int VERSION = 1;
+
+	public final int width;
+	public final int height;
+	public final int maxVerticalSeams;
+	public final int maxHorizontalSeams;
+	private final int[] verticalRanks;
+	private final int[] horizontalRanks;
+
+	private RetargetingIndex(int width, int height, int maxVerticalSeams, int maxHorizontalSeams,
+			int[] verticalRanks, int[] horizontalRanks) {
+		this.width = width;
+		this.height = height;
+		this.maxVerticalSeams = maxVerticalSeams;
+		this.maxHorizontalSeams = maxHorizontalSeams;
+		this.verticalRanks = verticalRanks;
+		this.horizontalRanks = horizontalRanks;
+	}
+
+	//MARK: Precomputation
+	public static RetargetingIndex build(Logger logger, BufferedImage master, RGBWeights rgbWeights) {
+		return build(logger, master, rgbWeights, master.getWidth() - 2, master.getHeight() - 2);
+	}
+
+	public static RetargetingIndex build(Logger logger, BufferedImage master, RGBWeights rgbWeights,
+			int maxVerticalSeams, int maxHorizontalSeams) {
+		int width = master.getWidth();
+		int height = master.getHeight();
+		//The energy of a pixel needs a neighbour on each axis, so the carver leaves at least two of each.
+		if (maxVerticalSeams < 0 || maxVerticalSeams > width - 2 || maxHorizontalSeams < 0 || maxHorizontalSeams > height - 2)
+			throw new IllegalArgumentException("Can not build a retargeting index: too many seams.");
+
+		logger.log("Recording the removal order of " + maxVerticalSeams + " vertical seams...");
+		BasicSeamsCarver carver = new BasicSeamsCarver(logger, master, width - maxVerticalSeams, height, rgbWeights);
+		int[] verticalRanks = ranks(carver.findSeams(false, maxVerticalSeams, CarvingScheme.VERTICAL_HORIZONTAL),
+				width * height);
+
+		logger.log("Recording the removal order of " + maxHorizontalSeams + " horizontal seams...");
+		carver = new BasicSeamsCarver(logger, master, width, height - maxHorizontalSeams, rgbWeights);
+		int[] horizontalRanks = ranks(carver.findSeams(true, maxHorizontalSeams, CarvingScheme.HORIZONTAL_VERTICAL),
+				width * height);
+
+		logger.log("Retargeting index done!");
+		return new RetargetingIndex(width, height, maxVerticalSeams, maxHorizontalSeams,
+				verticalRanks, horizontalRanks);
+	}
+
+	private static int[] ranks(ArrayList<int[]> seams, int pixels) {
+		int[] ranks = new int[pixels];
+		Arrays.fill(ranks, seams.size());
+		for (int rank = 0; rank < seams.size(); rank++) {
+			for (int index : seams.get(rank))
+				ranks[index] = rank;
+		}
+		return ranks;
+	}
+
+	//MARK: Lookup
+	public BufferedImage retarget(BufferedImage master, int outWidth, int outHeight) {
+		if (master.getWidth() != width || master.getHeight() != height)
+			throw new IllegalArgumentException("The image is not the one the index was built for.");
+		if (outWidth < width - maxVerticalSeams || outWidth > width || outHeight < height - maxHorizontalSeams || outHeight > height)
+			throw new IllegalArgumentException("Can not retarget to " + outWidth + "x" + outHeight + ": out of the index range.");
+
+		int[] in = PixelBuffer.of(master).pixels;
+		PixelBuffer ans;
+		if (outHeight == height)
+			ans = keepColumns(in, outWidth);
+		else if (outWidth == width)
+			ans = keepRows(in, outHeight);
+		else
+			ans = keepBoth(in, outWidth, outHeight);
+		return ans.toImage(master.getType());
+	}
+
+	// Every row keeps, in order, its pixels whose vertical rank is at least width - outWidth.
+	private PixelBuffer keepColumns(int[] in, int outWidth) {
+		int k = width - outWidth;
+		PixelBuffer ans = new PixelBuffer(outWidth, height);
+		int[] out = ans.pixels;
+		int o = 0;
+		for (int i = 0; i < in.length; i++) {
+			if (verticalRanks[i] >= k)
+				out[o++] = in[i];
+		}
+		return ans;
+	}
+
+	// Every column keeps, in order, its pixels whose horizontal rank is at least height - outHeight.
+	private PixelBuffer keepRows(int[] in, int outHeight) {
+		int k = height - outHeight;
+		PixelBuffer ans = new PixelBuffer(width, outHeight);
+		int[] out = ans.pixels;
+		int[] nextRows = new int[width];
+		for (int i = 0, x = 0; i < in.length; i++, x = x + 1 == width ? 0 : x + 1) {
+			if (horizontalRanks[i] >= k)
+				out[nextRows[x]++ * width + x] = in[i];
+		}
+		return ans;
+	}
+
+	/*
+	 * Changes the width as keepColumns does, keeping the horizontal ranks along with the pixels,
+	 * then every column keeps its outHeight pixels of the highest horizontal ranks (the upper ones
+	 * first on equal ranks).
+	 */
+	private PixelBuffer keepBoth(int[] in, int outWidth, int outHeight) {
+		int k = width - outWidth;
+		int[] pixels = new int[outWidth * height];
+		int[] ranks = new int[outWidth * height];
+		int o = 0;
+		for (int i = 0; i < in.length; i++) {
+			if (verticalRanks[i] >= k) {
+				pixels[o] = in[i];
+				ranks[o++] = horizontalRanks[i];
+			}
+		}
+
+		// thresholds[x]: the lowest rank column x keeps; quotas[x]: how many pixels of that rank it keeps.
+		int[] thresholds = new int[outWidth];
+		int[] quotas = new int[outWidth];
+		int[] column = new int[height];
+		for (int x = 0; x < outWidth; x++) {
+			for (int y = 0; y < height; y++)
+				column[y] = ranks[y * outWidth + x];
+			int threshold = select(column, height - outHeight);
+			int above = 0;
+			for (int y = 0; y < height; y++) {
+				if (ranks[y * outWidth + x] > threshold)
+					above++;
+			}
+			thresholds[x] = threshold;
+			quotas[x] = outHeight - above;
+		}
+
+		PixelBuffer ans = new PixelBuffer(outWidth, outHeight);
+		int[] out = ans.pixels;
+		int[] nextRows = new int[outWidth];
+		for (int i = 0, x = 0; i < pixels.length; i++, x = x + 1 == outWidth ? 0 : x + 1) {
+			boolean keep = ranks[i] > thresholds[x];
+			if (ranks[i] == thresholds[x] && quotas[x] > 0) {
+				quotas[x]--;
+				keep = true;
+			}
+			if (keep)
+				out[nextRows[x]++ * outWidth + x] = pixels[i];
+		}
+		return ans;
+	}
+
+	// The n-th smallest value of the array (which gets reordered), by quickselect.
+	private static int select(int[] values, int n) {
+		int from = 0;
+		int to = values.length - 1;
+		while (from < to) {
+			int pivot = values[(from + to) >>> 1];
+			int i = from;
+			int j = to;
+			while (i <= j) {
+				while (values[i] < pivot)
+					i++;
+				while (values[j] > pivot)
+					j--;
+				if (i <= j) {
+					int swap = values[i];
+					values[i++] = values[j];
+					values[j--] = swap;
+				}
+			}
+			if (n <= j)
+				to = j;
+			else if (n >= i)
+				from = i;
+			else
+				return values[n];
+		}
+		return values[n];
+	}
+
+	//MARK: Binary format
+	/*
+	 * The magic "SCRI", the format version, the width, the height and the seam counts, all as
+	 * big endian ints, followed by the deflated ranks: vertical then horizontal, row major, each
+	 * rank as an unsigned short when the seam counts allow it and as an int otherwise.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(width);
+		header.writeInt(height);
+		header.writeInt(maxVerticalSeams);
+		header.writeInt(maxHorizontalSeams);
+		header.flush();
+
+		DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+		DataOutputStream data = new DataOutputStream(deflater);
+		boolean shortRanks = shortRanks(maxVerticalSeams, maxHorizontalSeams);
+		for (int[] ranks : new int[][] { verticalRanks, horizontalRanks }) {
+			for (int rank : ranks) {
+				if (shortRanks)
+					data.writeShort(rank);
+				else
+					data.writeInt(rank);
+			}
+		}
+		data.flush();
+		deflater.finish();
+	}
+
+	public static RetargetingIndex read(InputStream in) throws IOException {
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != MAGIC)
+			throw new IOException("Not a retargeting index");
+		int version = header.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported retargeting index version " + version);
+		int width = header.readInt();
+		int height = header.readInt();
+		int maxVerticalSeams = header.readInt();
+		int maxHorizontalSeams = header.readInt();
+		if (width < 2 || height < 2 || maxVerticalSeams < 0 || maxVerticalSeams > width - 2
+				|| maxHorizontalSeams < 0 || maxHorizontalSeams > height - 2)
+			throw new IOException("Corrupt retargeting index header");
+		//Each rank array holds a rank per pixel, so the image must fit a single Java array.
+		if ((long) width * height > Integer.MAX_VALUE)
+			throw new IOException("Retargeting index too large: " + width + "x" + height);
+
+		DataInputStream data = new DataInputStream(new InflaterInputStream(in));
+		boolean shortRanks = shortRanks(maxVerticalSeams, maxHorizontalSeams);
+		int[][] ranks = new int[2][width * height];
+		for (int[] r : ranks) {
+			for (int i = 0; i < r.length; i++)
+				r[i] = shortRanks ? data.readUnsignedShort() : data.readInt();
+		}
+		return new RetargetingIndex(width, height, maxVerticalSeams, maxHorizontalSeams, ranks[0], ranks[1]);
+	}
+
+	private static boolean shortRanks(int maxVerticalSeams, int maxHorizontalSeams) {
+		return Math.max(maxVerticalSeams, maxHorizontalSeams) <= 0xffff;
+	}
+}
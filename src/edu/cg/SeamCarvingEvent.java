@@ -0,0 +1,48 @@
+package edu.cg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// A Flight Recorder event per carve: the sizes, the seams and the settings that chose the work.
+@Name("edu.cg.SeamCarving")
+@Label("Seam Carving")
+@Category({ "Image Processing", "Seam Carving" })
+@Description("A carve, a seam search or a seam insertion of a seams carver")
+final class SeamCarvingEvent extends Event {
+	@Label("Operation")
+	String operation;
+	
+	@Label("Scheme")
+	String scheme;
+	
+	@Label("Cost Mode")
+	String costMode;
+	
+	@Label("Seam Search")
+	String seamSearch;
+	
+	@Label("Width")
+	int width;
+	
+	@Label("Height")
+	int height;
+	
+	@Label("Output Width")
+	int outWidth;
+	
+	@Label("Output Height")
+	int outHeight;
+	
+	@Label("Vertical Seams")
+	int verticalSeams;
+	
+	@Label("Horizontal Seams")
+	int horizontalSeams;
+	
+	@Label("Pixels")
+	@Description("Pixels of the input image")
+	long pixels;
+}
@@ -0,0 +1,75 @@
+package edu.cg;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Wall time and number of runs per processing stage. The counters are atomic, so a snapshot can be
+ * taken from another thread while an operation runs; carvers that work together share one.
+ */
+public class StageMetrics {
+	public static enum Stage {
+		GREYSCALE("Greyscale"),
+		HUE("Hue"),
+		GRADIENT("Gradient magnitude"),
+		ENERGY("Energy"),
+		DP("Seam costs"),
+		BACKTRACK("Backtrack"),
+		SHIFT("Shift"),
+		TRANSPOSE("Transpose"),
+		RECONSTRUCT("Reconstruct"),
+		RESAMPLE("Resample");
+		
+		public final String description;
+		
+		private Stage(String description) {
+			this.description = description;
+		}
+	}
+	
+	private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray runs = new AtomicLongArray(Stage.values().length);
+	
+	public void add(Stage stage, long elapsedNanos) {
+		nanos.addAndGet(stage.ordinal(), elapsedNanos);
+		runs.incrementAndGet(stage.ordinal());
+	}
+	
+	public long nanos(Stage stage) {
+		return nanos.get(stage.ordinal());
+	}
+	
+	public long runs(Stage stage) {
+		return runs.get(stage.ordinal());
+	}
+	
+	public double millis(Stage stage) {
+		return nanos(stage) / 1e6;
+	}
+	
+	//Adds the counters of another one to these.
+	void addAll(StageMetrics other) {
+		for(int i = 0; i < Stage.values().length; i++) {
+			nanos.addAndGet(i, other.nanos.get(i));
+			runs.addAndGet(i, other.runs.get(i));
+		}
+	}
+	
+	public StageMetrics snapshot() {
+		StageMetrics ans = new StageMetrics();
+		for(int i = 0; i < Stage.values().length; i++) {
+			ans.nanos.set(i, nanos.get(i));
+			ans.runs.set(i, runs.get(i));
+		}
+		return ans;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder ans = new StringBuilder("Stage times:");
+		for(Stage stage : Stage.values()) {
+			if(runs(stage) > 0)
+				ans.append(String.format(" %s %.1f ms (%d);", stage.description, millis(stage), runs(stage)));
+		}
+		return ans.toString();
+	}
+}
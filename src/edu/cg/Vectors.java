@@ -0,0 +1,37 @@
+package edu.cg;
+
+/*
+ * Whether the SIMD kernels run: only when the jdk.incubator.vector module is in the boot layer
+ * (java --add-modules jdk.incubator.vector), edu.cg.VectorKernels is on the class path, the
+ * hardware has vectors of 256 bits or more, and the system property edu.cg.vector isn't false.
+ * Otherwise VectorKernels is never loaded and the scalar loops do all the work.
+ * VectorKernels is in the vector source root, the only one that needs the module to compile; it is
+ * loaded by name, so the other sources build and run without it.
+ * Until the JIT compiles them the kernels are much slower than the scalar loops, so they pay off in
+ * a long running JVM (carving, batches of images) rather than for one operation in a fresh one.
+ */
+public final class Vectors {
+	//The kernels, or null when they don't run. A constant, so the JIT inlines the calls.
+	static final PixelKernels KERNELS = kernels();
+	public static final boolean ENABLED = KERNELS != null;
+
+	private Vectors() {}
+
+	private static PixelKernels kernels() {
+		if (!Boolean.parseBoolean(System.getProperty("edu.cg.vector", "true")))
+			return null;
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+			return null;
+		try {
+			PixelKernels ans = (PixelKernels)Class.forName("edu.cg.VectorKernels").getDeclaredConstructor().newInstance();
+			return ans.supported() ? ans : null;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	//Which kernels run, for the logs and the benchmarks.
+	public static String description() {
+		return ENABLED ? "Vector API" : "scalar";
+	}
+}
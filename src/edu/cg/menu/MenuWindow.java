@@ -4,15 +4,20 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.GridLayout;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import edu.cg.RGBWeights;
 import edu.cg.AdvancedSeamsCarver;
+import edu.cg.CancellationToken;
 import edu.cg.ImageProcessor;
 import edu.cg.Logger;
+import edu.cg.ProgressListener;
 import edu.cg.BasicSeamsCarver;
 import edu.cg.menu.components.ActionsController;
 import edu.cg.menu.components.CarvingSchemeSelector;
@@ -29,6 +34,7 @@ public class MenuWindow extends JFrame implements Logger {
 	private static final boolean SHOWHORIZONTALSEAMS = false;
 	private BufferedImage workingImage;
 	private String imageTitle;
+	private CancellationToken carving; //of the carve running in the background, if any
 	
 	//MARK: GUI fields
 	private ImagePicker imagePicker;
@@ -143,10 +149,50 @@ public class MenuWindow extends JFrame implements Logger {
 					outHeight).bilinear();
 			break;
 			
+		case BILINEAR_MIPMAP:
+			img = new ImageProcessor(this,
+					duplicateImage(),
+					rgbWeights,
+					outWidth,
+					outHeight).bilinearMipmap();
+			break;
+			
+		case BICUBIC:
+			img = new ImageProcessor(this,
+					duplicateImage(),
+					rgbWeights,
+					outWidth,
+					outHeight).bicubic();
+			break;
+			
+		case LANCZOS3:
+			img = new ImageProcessor(this,
+					duplicateImage(),
+					rgbWeights,
+					outWidth,
+					outHeight).lanczos3();
+			break;
+			
+		case AREA_AVERAGE:
+			img = new ImageProcessor(this,
+					duplicateImage(),
+					rgbWeights,
+					outWidth,
+					outHeight).areaAverage();
+			break;
+			
 		default: //seam carving
-			AdvancedSeamsCarver carver = new AdvancedSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-			img = carver.resizeWithSeamCarving(scheme);
-			presentMessage += ", " + scheme.description + ",";
+			presentMessage += ", " + scheme.description + ", [" + outWidth + "][" + outHeight + "]";
+			BufferedImage image = duplicateImage();
+			carveInBackground(presentMessage, (token, listener) -> {
+				AdvancedSeamsCarver carver = new AdvancedSeamsCarver(this, image, outWidth, outHeight, rgbWeights);
+				carver.setCancellationToken(token);
+				carver.setProgressListener(listener);
+				BufferedImage ans = carver.resizeWithSeamCarving(scheme);
+				log(carver.getMetrics());
+				return ans;
+			});
+			return;
 		}
 		
 		presentMessage += " [" + outWidth + "][" + outHeight + "]";
@@ -158,18 +204,76 @@ public class MenuWindow extends JFrame implements Logger {
 		int outWidth = scaleSelector.width();
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BasicSeamsCarver carver = new BasicSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-		BufferedImage verticalSeamImage = carver.showSeams(SHOWVERTICALSEAMS, Color.red.getRGB());
-		present(verticalSeamImage, "Show seams vertical");
+		BufferedImage image = duplicateImage();
+		carveInBackground("Show seams vertical", (token, listener) -> {
+			BasicSeamsCarver carver = new BasicSeamsCarver(this, image, outWidth, outHeight, rgbWeights);
+			carver.setCancellationToken(token);
+			carver.setProgressListener(listener);
+			BufferedImage ans = carver.showSeams(SHOWVERTICALSEAMS, Color.red.getRGB());
+			log(carver.getMetrics());
+			return ans;
+		});
 	}
 
 	public void showSeamsHorizontal() {
 		int outWidth = scaleSelector.width();
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BasicSeamsCarver carver = new BasicSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-		BufferedImage horizontalSeamImage = carver.showSeams(SHOWHORIZONTALSEAMS, Color.BLACK.getRGB());
-		present(horizontalSeamImage, "Show seams horizontal");
+		BufferedImage image = duplicateImage();
+		carveInBackground("Show seams horizontal", (token, listener) -> {
+			BasicSeamsCarver carver = new BasicSeamsCarver(this, image, outWidth, outHeight, rgbWeights);
+			carver.setCancellationToken(token);
+			carver.setProgressListener(listener);
+			BufferedImage ans = carver.showSeams(SHOWHORIZONTALSEAMS, Color.BLACK.getRGB());
+			log(carver.getMetrics());
+			return ans;
+		});
+	}
+	
+	public void cancelCarving() {
+		if(carving == null) {
+			log("No carving to cancel.");
+			return;
+		}
+		carving.cancel();
+		log("Cancelling...");
+	}
+	
+	//A carve that reports to the listener and stops once the token is cancelled.
+	@FunctionalInterface
+	private static interface Carve {
+		public BufferedImage run(CancellationToken token, ProgressListener listener);
+	}
+	
+	/*
+	 * Runs a carve off the event thread, so the window stays responsive, logs its progress every
+	 * 10 percent and presents the result. Only one carve runs at a time.
+	 */
+	private void carveInBackground(String title, Carve carve) {
+		if(carving != null)
+			throw new IllegalStateException("A carve is already running.");
+		CancellationToken token = new CancellationToken();
+		ProgressListener listener = (stage, done, total) -> {
+			if(done == total || 100L * done / total % 10 == 0)
+				log(stage + ": " + done + " of " + total);
+		};
+		carving = token;
+		Thread thread = new Thread(() -> {
+			try {
+				BufferedImage img = carve.run(token, listener);
+				SwingUtilities.invokeLater(() -> present(img, title));
+			} catch (CancellationException e) {
+				log(title + " cancelled.");
+			} catch (Exception e) {
+				String msg = "Error in " + title + "!" + System.lineSeparator() + e.getMessage();
+				log(msg);
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, msg, "Error", JOptionPane.ERROR_MESSAGE));
+			} finally {
+				SwingUtilities.invokeLater(() -> carving = null);
+			}
+		}, "Seam carving");
+		thread.setDaemon(true);
+		thread.start();
 	}
 	
 	private void present(BufferedImage img, String title) {
@@ -206,8 +310,13 @@ public class MenuWindow extends JFrame implements Logger {
 	}
 	
 	//MARK: Logger
+	//The carves log from their own thread (their progress, the processors' steps, errors); the log
+	//field is a Swing component, so it is only written to on the event thread.
 	@Override
 	public void log(String s) {
-		logField.log(s);
+		if(SwingUtilities.isEventDispatchThread())
+			logField.log(s);
+		else
+			SwingUtilities.invokeLater(() -> logField.log(s));
 	}
 }
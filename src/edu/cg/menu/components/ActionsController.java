@@ -48,6 +48,7 @@ public class ActionsController extends JPanel {
 		
 		panel2.add(addAndGetButton("Show seams - vertical", menuWindow::showSeamsVertical));
 		panel2.add(addAndGetButton("Show seams - horizontal", menuWindow::showSeamsHorizontal));
+		panel2.add(addAndGetButton("Cancel carving", menuWindow::cancelCarving));
 	}
 	
 	private JButton addAndGetButton(String btnName, Runnable action) {
@@ -15,6 +15,8 @@ public class CarvingSchemeSelector extends JPanel {
 	private Checkbox verticalFirst;
 	private Checkbox horizontalFirst;
 	private Checkbox intermittent;
+	private Checkbox batched;
+	private Checkbox optimal;
 	
 	public CarvingSchemeSelector() {
 		super();
@@ -29,10 +31,14 @@ public class CarvingSchemeSelector extends JPanel {
 		CheckboxGroup group = new CheckboxGroup();
 		verticalFirst = new Checkbox("Vertical first  ", group, true);
 		horizontalFirst = new Checkbox("Horizontal first  ", group, false);
-		intermittent = new Checkbox("Intermittent", group, false);
+		intermittent = new Checkbox("Intermittent  ", group, false);
+		batched = new Checkbox("Batched  ", group, false);
+		optimal = new Checkbox("Optimal", group, false);
 		add(verticalFirst);
 		add(horizontalFirst);
 		add(intermittent);
+		add(batched);
+		add(optimal);
 	}
 
 	public CarvingScheme carvingScheme() {
@@ -40,7 +46,11 @@ public class CarvingSchemeSelector extends JPanel {
 			return CarvingScheme.VERTICAL_HORIZONTAL;
 		else if(horizontalFirst.getState())
 			return CarvingScheme.HORIZONTAL_VERTICAL;
-		else
+		else if(intermittent.getState())
 			return CarvingScheme.INTERMITTENT;
+		else if(batched.getState())
+			return CarvingScheme.BATCHED;
+		else
+			return CarvingScheme.OPTIMAL;
 	}
 }
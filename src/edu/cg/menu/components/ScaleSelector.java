@@ -17,6 +17,10 @@ public class ScaleSelector extends JPanel {
 	
 	private Checkbox nearestNeighbor;
 	private Checkbox bilinear;
+	private Checkbox bilinearMipmap;
+	private Checkbox bicubic;
+	private Checkbox lanczos3;
+	private Checkbox areaAverage;
 	
 	public ScaleSelector() {
 		super();
@@ -34,9 +38,17 @@ public class ScaleSelector extends JPanel {
 		CheckboxGroup group = new CheckboxGroup();
 		nearestNeighbor = new Checkbox("Nearest neighbor  ", group, true);
 		bilinear = new Checkbox("Bilinear  ", group, false);
+		bilinearMipmap = new Checkbox("Bilinear, mipmap  ", group, false);
+		bicubic = new Checkbox("Bicubic  ", group, false);
+		lanczos3 = new Checkbox("Lanczos-3  ", group, false);
+		areaAverage = new Checkbox("Area average  ", group, false);
 		Checkbox seamCarving = new Checkbox("Seam carving", group, false);
 		add(nearestNeighbor);
 		add(bilinear);
+		add(bilinearMipmap);
+		add(bicubic);
+		add(lanczos3);
+		add(areaAverage);
 		add(seamCarving);
 	}
 	
@@ -71,6 +83,10 @@ public class ScaleSelector extends JPanel {
 	public static enum ResizingOperation {
 		NEAREST_NEIGHBOR("Nearest Neighbor"),
 		BILINEAR("Bilinear"),
+		BILINEAR_MIPMAP("Bilinear, mipmap"),
+		BICUBIC("Bicubic"),
+		LANCZOS3("Lanczos-3"),
+		AREA_AVERAGE("Area Average"),
 		SEAM_CARVING("Seam Carving");
 		
 		public final String title;
@@ -84,6 +100,14 @@ public class ScaleSelector extends JPanel {
 			return ResizingOperation.NEAREST_NEIGHBOR;
 		else if(bilinear.getState())
 			return ResizingOperation.BILINEAR;
+		else if(bilinearMipmap.getState())
+			return ResizingOperation.BILINEAR_MIPMAP;
+		else if(bicubic.getState())
+			return ResizingOperation.BICUBIC;
+		else if(lanczos3.getState())
+			return ResizingOperation.LANCZOS3;
+		else if(areaAverage.getState())
+			return ResizingOperation.AREA_AVERAGE;
 		else
 			return ResizingOperation.SEAM_CARVING;
 	}
@@ -0,0 +1,161 @@
+package edu.cg;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * The PixelKernels on the incubating Vector API: a vector of packed pixels at a time, with the
+ * channels unpacked in the lanes. Every kernel does the whole vectors of its range. The results are
+ * exactly those of the scalar loops: the divisions and square roots go through float, and their
+ * nearest int is corrected to the integer result.
+ * Compiling this class needs --add-modules jdk.incubator.vector, which is why it has a source root
+ * of its own; only Vectors may load it.
+ */
+final class VectorKernels implements PixelKernels {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	// As many shorts as INTS has lanes.
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class,
+			VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+	//A float holds every integer up to 2^24 exactly, so a quotient below it is off by one at most.
+	private static final int MAX_EXACT_FLOAT = 1 << 24;
+
+	//Below 256 bit vectors the scalar loops are as fast.
+	@Override
+	public boolean supported() {
+		return INTS.vectorBitSize() >= 256 && FLOATS.length() == INTS.length();
+	}
+
+	//MARK: Greyscale
+	/*
+	 * row[x] = grey((r*red + g*green + b*blue) / weightsSum) in place; for non negative weights with
+	 * 255 * weightsSum below 2^24 only (it returns 0 for others).
+	 */
+	@Override
+	public int greyscale(int[] row, int width, RGBWeights weights) {
+		int sum = weights.weightsSum;
+		if (weights.redWeight < 0 || weights.greenWeight < 0 || weights.blueWeight < 0 || sum <= 0
+				|| 255L * sum >= MAX_EXACT_FLOAT)
+			return 0;
+
+		float reciprocal = 1f / sum;
+		int x = 0;
+		for (int end = INTS.loopBound(width); x < end; x += INTS.length()) {
+			IntVector c = IntVector.fromArray(INTS, row, x);
+			IntVector weighted = channel(c, 16).mul(weights.redWeight)
+					.add(channel(c, 8).mul(weights.greenWeight))
+					.add(channel(c, 0).mul(weights.blueWeight));
+			IntVector grey = divide(weighted, sum, reciprocal);
+			grey.mul(0x010101).or(0xff000000).intoArray(row, x);
+		}
+		return x;
+	}
+
+	//MARK: Change hue
+	/*
+	 * out[i] = every channel times its weight over maxWeight, for i in [from, to); for non negative
+	 * weights below 2^24 / 255 with a positive maximum only (it returns from for others).
+	 */
+	@Override
+	public int changeHue(int[] in, int[] out, int from, int to, RGBWeights weights) {
+		int max = weights.maxWeight;
+		if (weights.redWeight < 0 || weights.greenWeight < 0 || weights.blueWeight < 0 || max <= 0
+				|| 255L * max >= MAX_EXACT_FLOAT)
+			return from;
+
+		// A pass per channel, as three divisions in a loop are more than the JIT inlines.
+		float reciprocal = 1f / max;
+		int end = from + INTS.loopBound(to - from);
+		int[] channelWeights = { weights.redWeight, weights.greenWeight, weights.blueWeight };
+		for (int channel = 0; channel < 3; channel++) {
+			int shift = 16 - 8 * channel;
+			int weight = channelWeights[channel];
+			for (int i = from; i < end; i += INTS.length()) {
+				IntVector hue = divide(channel(IntVector.fromArray(INTS, in, i), shift).mul(weight), max, reciprocal)
+						.lanewise(VectorOperators.LSHL, shift);
+				if (channel == 0)
+					hue.or(0xff000000).intoArray(out, i);
+				else
+					hue.or(IntVector.fromArray(INTS, out, i)).intoArray(out, i);
+			}
+		}
+		return end;
+	}
+
+	//MARK: Gradient magnitude
+	/*
+	 * out[x] = grey((int)sqrt((dx^2 + dy^2) / 2)) for the differences of the red channel of row[x]
+	 * to row[x + 1] and to below[x]; up to the last column, which has no right neighbour.
+	 */
+	@Override
+	public int gradientMagnitude(int[] row, int[] below, int[] out, int width) {
+		int x = 0;
+		for (int end = INTS.loopBound(width - 1); x < end; x += INTS.length()) {
+			IntVector current = channel(IntVector.fromArray(INTS, row, x), 16);
+			IntVector dx = current.sub(channel(IntVector.fromArray(INTS, row, x + 1), 16)).abs();
+			IntVector dy = current.sub(channel(IntVector.fromArray(INTS, below, x), 16)).abs();
+			IntVector twiceSquare = dx.mul(dx).add(dy.mul(dy));
+			IntVector magnitude = halfSquareRoot(twiceSquare);
+			magnitude.mul(0x010101).or(0xff000000).intoArray(out, x);
+		}
+		return x;
+	}
+
+	//MARK: Seam carving energy
+	/*
+	 * codes[i + x] = |dh| << 8 | |dv| for the differences dh, dv of grey[i + x] to grey[i + x + 1] and
+	 * to grey[next + x], for the columns before the last one of a row of the given number of columns.
+	 */
+	@Override
+	public int energy(int[] grey, int i, int next, short[] codes, int columns) {
+		int x = 0;
+		for (int end = INTS.loopBound(columns - 1); x < end; x += INTS.length()) {
+			IntVector current = IntVector.fromArray(INTS, grey, i + x);
+			IntVector horizontal = current.sub(IntVector.fromArray(INTS, grey, i + x + 1)).abs();
+			IntVector vertical = current.sub(IntVector.fromArray(INTS, grey, next + x)).abs();
+			((ShortVector)horizontal.lanewise(VectorOperators.LSHL, 8).or(vertical)
+					.convertShape(VectorOperators.I2S, SHORTS, 0)).intoArray(codes, i + x);
+		}
+		return x;
+	}
+
+	//MARK: Lanes
+	private static IntVector channel(IntVector pixels, int shift) {
+		return pixels.lanewise(VectorOperators.LSHR, shift).and(0xff);
+	}
+
+	/*
+	 * Every lane of a non negative vector below 2^24 times the reciprocal of a positive divisor,
+	 * rounded down. The nearest int to the float quotient is the quotient or one more, so it is one
+	 * less where the remainder is negative: the correction adds the sign bit of the remainder rather
+	 * than use a mask, which the JIT of JDK 17 doesn't compile into vector instructions.
+	 */
+	private static IntVector divide(IntVector dividend, int divisor, float reciprocal) {
+		IntVector ans = rounded(floats(dividend).mul(reciprocal));
+		return ans.add(dividend.sub(ans.mul(divisor)).lanewise(VectorOperators.ASHR, 31));
+	}
+
+	//Every lane n (below 2^24) to the largest m with 2 * m^2 <= n, that is (int)sqrt(n / 2).
+	private static IntVector halfSquareRoot(IntVector n) {
+		IntVector ans = rounded(floats(n).mul(0.5f).lanewise(VectorOperators.SQRT));
+		// The nearest int to the root, one less where it is past it.
+		return ans.add(n.sub(ans.mul(ans).mul(2)).lanewise(VectorOperators.ASHR, 31));
+	}
+
+	private static FloatVector floats(IntVector lanes) {
+		return (FloatVector)lanes.castShape(FLOATS, 0);
+	}
+
+	/*
+	 * Every lane of a vector of floats in [0, 2^22) to the nearest int: adding 2^23 leaves it in the
+	 * mantissa. The JIT of JDK 17 doesn't compile float to int conversions into vector instructions.
+	 */
+	private static IntVector rounded(FloatVector lanes) {
+		return lanes.add(0x1p23f).reinterpretAsInts().sub(0x4b000000);
+	}
+}